@@ -1,5 +1,6 @@
 import java.net.URL
 import java.io.FileOutputStream
+import java.util.zip.CRC32
 
 plugins {
     id("com.android.application")
@@ -37,6 +38,50 @@ tasks.matching { it.name.contains("CMake") || it.name.contains("externalNative")
     dependsOn("downloadSDL2")
 }
 
+// Asset manifest: size and CRC32 of every file under assets/gamedata, so
+// AssetCopier can re-copy only what changed between installs
+val gamedataDir = file("src/main/assets/gamedata")
+val assetManifestDir = file("${layout.buildDirectory.get()}/generated/assetManifest")
+
+tasks.register("generateAssetManifest") {
+    inputs.dir(gamedataDir)
+    outputs.dir(assetManifestDir)
+    
+    doLast {
+        val manifest = file("${assetManifestDir}/asset-manifest.txt")
+        manifest.parentFile.mkdirs()
+        
+        val buffer = ByteArray(1 shl 20)
+        manifest.bufferedWriter().use { out ->
+            out.write("# ringracers asset manifest v1\n")
+            gamedataDir.walkTopDown()
+                .filter { it.isFile }
+                .sortedBy { it.relativeTo(gamedataDir).invariantSeparatorsPath }
+                .forEach { f ->
+                    val crc = CRC32()
+                    f.inputStream().use { input ->
+                        while (true) {
+                            val n = input.read(buffer)
+                            if (n < 0) break
+                            crc.update(buffer, 0, n)
+                        }
+                    }
+                    val hash = "%08x".format(crc.value)
+                    out.write("${f.length()} $hash ${f.relativeTo(gamedataDir).invariantSeparatorsPath}\n")
+                }
+        }
+    }
+}
+
+tasks.matching { it.name.startsWith("merge") && it.name.endsWith("Assets") }.configureEach {
+    dependsOn("generateAssetManifest")
+}
+
+// Log levels are android.util.Log priorities, shared by BuildConfig and
+// rr_log.h. Pass -Pringracers.logTrace=true for sampled input tracing in
+// release builds.
+val releaseLogTrace = (project.findProperty("ringracers.logTrace") as String?).toBoolean()
+
 android {
     namespace = "org.kartkrew.ringracers"
     compileSdk = 34
@@ -68,13 +113,33 @@ android {
     buildTypes {
         release {
             isMinifyEnabled = false
+            
+            buildConfigField("int", "LOG_LEVEL", "4") // INFO
+            buildConfigField("boolean", "LOG_TRACE", releaseLogTrace.toString())
+            externalNativeBuild {
+                cmake {
+                    arguments += listOf("-DRR_LOG_LEVEL=4", "-DRR_LOG_TRACE=${if (releaseLogTrace) 1 else 0}")
+                }
+            }
         }
         debug {
             isDebuggable = true
             isJniDebuggable = true
+            
+            buildConfigField("int", "LOG_LEVEL", "3") // DEBUG
+            buildConfigField("boolean", "LOG_TRACE", "true")
+            externalNativeBuild {
+                cmake {
+                    arguments += listOf("-DRR_LOG_LEVEL=3", "-DRR_LOG_TRACE=1")
+                }
+            }
         }
     }
     
+    buildFeatures {
+        buildConfig = true
+    }
+    
     externalNativeBuild {
         cmake {
             path = file("src/main/cpp/CMakeLists.txt")
@@ -90,7 +155,7 @@ android {
     // Include game assets (if present)
     sourceSets {
         getByName("main") {
-            assets.srcDirs("src/main/assets")
+            assets.srcDirs("src/main/assets", assetManifestDir)
         }
     }
     
@@ -108,8 +173,24 @@ android {
     aaptOptions {
         noCompress += listOf("pk3", "wad", "deh", "bex", "lua")
     }
+    
+    // Host JVM tests for the classes with no Android dependencies; the
+    // odd Log call from them just returns a default
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+}
+
+// -Pringracers.benchmarkMb=N sizes the large files AssetExtractorBenchmark
+// copies; the default keeps it a quick correctness test
+tasks.withType<Test>().configureEach {
+    (project.findProperty("ringracers.benchmarkMb") as String?)?.let {
+        systemProperty("ringracers.benchmarkMb", it)
+    }
 }
 
 dependencies {
     implementation("androidx.appcompat:appcompat:1.6.1")
+    
+    testImplementation("junit:junit:4.13.2")
 }
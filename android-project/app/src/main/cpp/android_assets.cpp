@@ -0,0 +1,214 @@
+/**
+ * Ring Racers Android - APK-backed game files
+ *
+ * Each registered file is exposed through fopencookie() as a plain FILE*,
+ * so w_wad.cpp's fseek/fread/ftell based zip parsing works unchanged.
+ * All reads are pread() on the shared APK descriptor, which keeps any
+ * number of open streams independent of each other.
+ *
+ * Pending files are plain paths the game thread waits on with a condition
+ * variable until the background extraction finishes them.
+ */
+
+#ifndef _GNU_SOURCE
+#define _GNU_SOURCE // fopencookie
+#endif
+
+#include "android_assets.h"
+
+#include "rr_log.h"
+#include <errno.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include <condition_variable>
+#include <mutex>
+#include <string>
+#include <vector>
+
+#define LOG_TAG "RingRacers-Assets"
+#define LOGI(...) RR_LOG(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
+#define LOGW(...) RR_LOG(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
+
+namespace {
+
+struct AssetRange {
+    std::string relpath;
+    int fd;
+    int64_t offset;
+    int64_t length;
+};
+
+struct AssetStream {
+    int fd;
+    int64_t offset;
+    int64_t length;
+    int64_t pos;
+};
+
+std::mutex g_mutex;
+std::condition_variable g_readyCond;
+std::vector<AssetRange> g_assets;
+std::vector<std::string> g_pending;
+
+// Match "data/gfx.pk3" against "/any/prefix/data/gfx.pk3" or "./data/gfx.pk3".
+bool Matches(const char* path, size_t pathlen, const std::string& relpath) {
+    size_t len = relpath.size();
+    if (len > pathlen) return false;
+    if (memcmp(path + pathlen - len, relpath.c_str(), len) != 0) return false;
+    return len == pathlen || path[pathlen - len - 1] == '/';
+}
+
+// The longest registered path wins, so "maps.pk3" can't shadow "data/maps.pk3".
+const AssetRange* Find(const char* path) {
+    if (!path) return nullptr;
+
+    size_t pathlen = strlen(path);
+    const AssetRange* best = nullptr;
+
+    for (const AssetRange& a : g_assets) {
+        if (!Matches(path, pathlen, a.relpath)) continue;
+        if (!best || a.relpath.size() > best->relpath.size()) best = &a;
+    }
+    return best;
+}
+
+bool IsPending(const char* path) {
+    if (!path) return false;
+
+    size_t pathlen = strlen(path);
+    for (const std::string& p : g_pending) {
+        if (Matches(path, pathlen, p)) return true;
+    }
+    return false;
+}
+
+ssize_t StreamRead(void* cookie, char* buf, size_t size) {
+    AssetStream* s = static_cast<AssetStream*>(cookie);
+    int64_t left = s->length - s->pos;
+    if (left <= 0) return 0;
+    if ((int64_t)size > left) size = (size_t)left;
+
+    ssize_t n;
+    do {
+        n = pread64(s->fd, buf, size, s->offset + s->pos);
+    } while (n < 0 && errno == EINTR);
+
+    if (n > 0) s->pos += n;
+    return n;
+}
+
+int StreamSeek(void* cookie, off64_t* off, int whence) {
+    AssetStream* s = static_cast<AssetStream*>(cookie);
+    int64_t base;
+
+    switch (whence) {
+        case SEEK_SET: base = 0; break;
+        case SEEK_CUR: base = s->pos; break;
+        case SEEK_END: base = s->length; break;
+        default: errno = EINVAL; return -1;
+    }
+
+    int64_t pos = base + *off;
+    if (pos < 0) {
+        errno = EINVAL;
+        return -1;
+    }
+
+    s->pos = pos;
+    *off = pos;
+    return 0;
+}
+
+int StreamClose(void* cookie) {
+    // The descriptor belongs to the registry and stays open
+    delete static_cast<AssetStream*>(cookie);
+    return 0;
+}
+
+} // namespace
+
+extern "C" {
+
+void AndroidAssets_Register(const char* relpath, int fd, int64_t offset, int64_t length) {
+    std::lock_guard<std::mutex> lock(g_mutex);
+
+    for (AssetRange& a : g_assets) {
+        if (a.relpath == relpath) {
+            close(a.fd);
+            a.fd = fd;
+            a.offset = offset;
+            a.length = length;
+            return;
+        }
+    }
+
+    g_assets.push_back({relpath, fd, offset, length});
+    LOGI("Mapped %s from APK (%lld bytes at %lld)", relpath, (long long)length, (long long)offset);
+}
+
+FILE* AndroidAssets_Open(const char* path) {
+    AssetStream* s;
+    {
+        std::lock_guard<std::mutex> lock(g_mutex);
+        const AssetRange* a = Find(path);
+        if (!a) return nullptr;
+        s = new AssetStream{a->fd, a->offset, a->length, 0};
+    }
+
+    cookie_io_functions_t io = {};
+    io.read = StreamRead;
+    io.seek = StreamSeek;
+    io.close = StreamClose;
+
+    FILE* f = fopencookie(s, "rb", io);
+    if (!f) delete s;
+    return f;
+}
+
+int AndroidAssets_Exists(const char* path) {
+    std::lock_guard<std::mutex> lock(g_mutex);
+    return Find(path) != nullptr || IsPending(path);
+}
+
+int AndroidAssets_Stat(const char* path, int64_t* size, int64_t* mtime) {
+    std::lock_guard<std::mutex> lock(g_mutex);
+    const AssetRange* a = Find(path);
+    if (!a) return 0;
+
+    // The APK is replaced as a whole on update, its mtime covers every range
+    struct stat st;
+    if (fstat(a->fd, &st) != 0) return 0;
+
+    *size = a->length;
+    *mtime = st.st_mtime;
+    return 1;
+}
+
+void AndroidAssets_SetPending(const char* relpath, int pending) {
+    std::lock_guard<std::mutex> lock(g_mutex);
+
+    auto it = g_pending.begin();
+    for (; it != g_pending.end(); ++it) {
+        if (*it == relpath) break;
+    }
+
+    if (pending) {
+        if (it == g_pending.end()) g_pending.emplace_back(relpath);
+    } else if (it != g_pending.end()) {
+        g_pending.erase(it);
+        g_readyCond.notify_all();
+    }
+}
+
+void AndroidAssets_WaitReady(const char* path) {
+    std::unique_lock<std::mutex> lock(g_mutex);
+    if (!IsPending(path)) return;
+
+    LOGW("Waiting for %s to finish extracting", path);
+    g_readyCond.wait(lock, [path] { return !IsPending(path); });
+}
+
+} // extern "C"
@@ -0,0 +1,47 @@
+/**
+ * Ring Racers Android - APK-backed game files
+ *
+ * Uncompressed pk3s inside the APK are handed over by the Java side as
+ * (fd, offset, length) ranges, so the engine can read them in place
+ * instead of from a copy on external storage.
+ *
+ * Files still being extracted in the background are tracked as pending;
+ * opening one blocks until the Java side reports it done.
+ */
+
+#ifndef ANDROID_ASSETS_H
+#define ANDROID_ASSETS_H
+
+#include <stdint.h>
+#include <stdio.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+// Register a file living inside the APK. relpath is relative to the game
+// directory (e.g. "bios.pk3", "data/gfx.pk3"). Takes ownership of fd.
+void AndroidAssets_Register(const char *relpath, int fd, int64_t offset, int64_t length);
+
+// Open a registered file as a read-only stdio stream, or NULL if path
+// does not name a registered file.
+FILE *AndroidAssets_Open(const char *path);
+
+// Non-zero if path names a registered file or one still being extracted.
+int AndroidAssets_Exists(const char *path);
+
+// Size and mtime of the APK range behind a registered file. Returns
+// non-zero if path names a registered file.
+int AndroidAssets_Stat(const char *path, int64_t *size, int64_t *mtime);
+
+// Mark a file (relative to the game directory) as being extracted, or done.
+void AndroidAssets_SetPending(const char *relpath, int pending);
+
+// Block while path names a file that is still being extracted.
+void AndroidAssets_WaitReady(const char *path);
+
+#ifdef __cplusplus
+} // extern "C"
+#endif
+
+#endif // ANDROID_ASSETS_H
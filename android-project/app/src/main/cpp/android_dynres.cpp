@@ -0,0 +1,125 @@
+/**
+ * Ring Racers Android - dynamic resolution
+ */
+
+#include "android_dynres.h"
+
+#include "android_frame.h"
+
+#include <algorithm>
+#include <atomic>
+
+namespace {
+
+constexpr int kWindowFrames = 30;
+constexpr int kMissesToDrop = 3;       // Per window
+constexpr double kMissFactor = 1.25;   // Of the budget
+constexpr double kHeadroom = 0.7;      // CPU share of the budget to go up
+constexpr int64_t kHitchNs = 250000000LL; // Loads and the like, not load
+
+constexpr float kStepDown = 0.1f;
+constexpr float kStepUp = 0.05f;
+
+// Windows to wait before going up again, doubled each time going up
+// is followed straight away by going down
+constexpr int kMinBackoff = 2;
+constexpr int kMaxBackoff = 32;
+constexpr int kProbeSettled = 4;
+
+std::atomic<float> g_targetFps{0.0f};
+std::atomic<float> g_minScale{0.5f};
+std::atomic<float> g_maxScale{1.0f};
+std::atomic<float> g_scale{1.0f};
+
+// Game thread only
+int g_frames;
+int g_misses;
+int64_t g_cpuTotal;
+int g_cooldown;
+int g_backoff = kMinBackoff;
+int g_sinceChange;
+bool g_lastWasUp;
+
+int64_t BudgetNs() {
+    float target = g_targetFps.load(std::memory_order_relaxed);
+    if (target <= 0.0f) {
+        // Presents can't come faster than the mode the display is in,
+        // whatever the engine is capped to
+        uint32_t hz = AndroidFrame_EngineRate();
+        uint32_t refresh = AndroidFrame_RefreshRate();
+        if (refresh != 0 && (hz == 0 || hz > refresh)) hz = refresh;
+        target = hz != 0 ? static_cast<float>(hz) : 60.0f;
+    }
+    return static_cast<int64_t>(1e9 / target);
+}
+
+void EndWindow(int64_t budget) {
+    float lo = g_minScale.load(std::memory_order_relaxed);
+    float hi = g_maxScale.load(std::memory_order_relaxed);
+    float scale = std::clamp(g_scale.load(std::memory_order_relaxed), lo, hi);
+    int64_t cpuAvg = g_cpuTotal / g_frames;
+
+    g_sinceChange++;
+    if (g_lastWasUp && g_sinceChange >= kProbeSettled) {
+        // Going up stuck; be quick to try again next time
+        g_lastWasUp = false;
+        g_backoff = kMinBackoff;
+    }
+
+    if (g_misses >= kMissesToDrop) {
+        if (g_lastWasUp) g_backoff = std::min(g_backoff * 2, kMaxBackoff);
+        scale = std::max(lo, scale - kStepDown);
+        g_cooldown = g_backoff;
+        g_lastWasUp = false;
+        g_sinceChange = 0;
+    } else if (g_cooldown > 0) {
+        g_cooldown--;
+    } else if (g_misses == 0 && cpuAvg < budget * kHeadroom && scale < hi) {
+        scale = std::min(hi, scale + kStepUp);
+        g_lastWasUp = true;
+        g_sinceChange = 0;
+    }
+
+    g_scale.store(scale, std::memory_order_relaxed);
+}
+
+} // namespace
+
+extern "C" {
+
+void AndroidDynRes_Configure(float target_fps, float min_scale, float max_scale)
+{
+    min_scale = std::clamp(min_scale, 0.1f, 1.0f);
+    max_scale = std::clamp(max_scale, min_scale, 1.0f);
+
+    g_targetFps.store(std::max(target_fps, 0.0f), std::memory_order_relaxed);
+    g_minScale.store(min_scale, std::memory_order_relaxed);
+    g_maxScale.store(max_scale, std::memory_order_relaxed);
+    g_scale.store(std::clamp(g_scale.load(std::memory_order_relaxed), min_scale, max_scale), std::memory_order_relaxed);
+}
+
+void AndroidDynRes_FrameTimes(int64_t cpu_ns, int64_t present_ns)
+{
+    int64_t frame = cpu_ns + present_ns;
+    if (frame <= 0 || frame > kHitchNs) return;
+
+    int64_t budget = BudgetNs();
+    // Either side is ours to fix: the engine's video mode follows the
+    // scale, so the software renderer and the 2D pass shrink with it
+    if (frame > budget * kMissFactor) g_misses++;
+    g_cpuTotal += cpu_ns;
+
+    if (++g_frames < kWindowFrames) return;
+
+    EndWindow(budget);
+    g_frames = 0;
+    g_misses = 0;
+    g_cpuTotal = 0;
+}
+
+float AndroidDynRes_Scale(void)
+{
+    return g_scale.load(std::memory_order_relaxed);
+}
+
+} // extern "C"
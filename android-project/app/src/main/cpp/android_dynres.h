@@ -0,0 +1,44 @@
+/**
+ * Ring Racers Android - dynamic resolution
+ *
+ * The game thread reports how long each presented frame took, split into
+ * CPU work (everything up to the present) and the present itself, which
+ * is where a GPU that can't keep up makes us wait. Once a window of
+ * frames is in, the controller steps the render scale down when frames
+ * miss the budget, and creeps it back up when there is clear headroom,
+ * backing off further each time going up turns out to be a mistake.
+ *
+ * The scale drives two things. I_UpdateDynamicResolution picks the
+ * engine's video mode from it, so the software renderer and the 2D pass
+ * draw fewer pixels; it changes mode mid-level only to go down, and not
+ * often, since a mode change hitches. DynamicResolution.java sizes the
+ * surface to it with SurfaceHolder.setFixedSize, so the hardware
+ * composer does the last upscale to the panel. GLES2 has no timer
+ * queries in our loader, hence the present time standing in for GPU
+ * time.
+ */
+
+#ifndef ANDROID_DYNRES_H
+#define ANDROID_DYNRES_H
+
+#include <stdint.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+// UI thread. target_fps 0 follows the engine's frame rate cap. Scales
+// are fractions of the panel resolution, 0 < min <= max <= 1.
+void AndroidDynRes_Configure(float target_fps, float min_scale, float max_scale);
+
+// Game thread, once per presented frame.
+void AndroidDynRes_FrameTimes(int64_t cpu_ns, int64_t present_ns);
+
+// Current render scale, any thread.
+float AndroidDynRes_Scale(void);
+
+#ifdef __cplusplus
+} // extern "C"
+#endif
+
+#endif // ANDROID_DYNRES_H
@@ -0,0 +1,55 @@
+/**
+ * Ring Racers Android - display frame timing
+ */
+
+#include "android_frame.h"
+
+#include <atomic>
+
+namespace {
+
+std::atomic<int64_t> g_periodNs{0};
+std::atomic<uint32_t> g_maxHz{0};
+std::atomic<uint32_t> g_throttleHz{0};
+std::atomic<uint32_t> g_engineHz{0};
+
+} // namespace
+
+extern "C" {
+
+void AndroidFrame_OnVsync(int64_t period_ns, uint32_t max_hz, uint32_t throttle_hz)
+{
+    g_periodNs.store(period_ns > 0 ? period_ns : 0, std::memory_order_relaxed);
+    g_maxHz.store(max_hz, std::memory_order_relaxed);
+    g_throttleHz.store(throttle_hz, std::memory_order_relaxed);
+}
+
+uint32_t AndroidFrame_RefreshRate(void)
+{
+    int64_t period = g_periodNs.load(std::memory_order_relaxed);
+    if (period <= 0) return 0;
+    return static_cast<uint32_t>((1000000000LL + period / 2) / period);
+}
+
+uint32_t AndroidFrame_MaxRefreshRate(void)
+{
+    uint32_t hz = g_maxHz.load(std::memory_order_relaxed);
+    return hz != 0 ? hz : AndroidFrame_RefreshRate();
+}
+
+uint32_t AndroidFrame_ThrottleRate(void)
+{
+    return g_throttleHz.load(std::memory_order_relaxed);
+}
+
+void AndroidFrame_SetEngineRate(uint32_t hz)
+{
+    g_engineHz.store(hz, std::memory_order_relaxed);
+}
+
+uint32_t AndroidFrame_EngineRate(void)
+{
+    return g_engineHz.load(std::memory_order_relaxed);
+}
+
+} // extern "C"
@@ -0,0 +1,47 @@
+/**
+ * Ring Racers Android - display frame timing
+ *
+ * FramePacer.java reports every Choreographer vsync here from the UI
+ * thread: the display's vsync period, the highest rate the
+ * display supports, and any frame rate cap the system is asking for
+ * (battery saver, thermal throttling). The engine reads it from the game
+ * thread to pace against the real display instead of a guessed 60Hz, and
+ * says which rate it is actually running at so Java can ask the display
+ * for it while throttled.
+ *
+ * Everything is a relaxed atomic; a reader may see one field from a
+ * vsync newer than another, which only ever costs one frame of accuracy.
+ */
+
+#ifndef ANDROID_FRAME_H
+#define ANDROID_FRAME_H
+
+#include <stdint.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+// UI thread, once per vsync. throttle_hz is 0 when uncapped.
+void AndroidFrame_OnVsync(int64_t period_ns, uint32_t max_hz, uint32_t throttle_hz);
+
+// Display refresh rate in Hz, 0 until the first vsync.
+uint32_t AndroidFrame_RefreshRate(void);
+
+// Highest refresh rate the display supports in its current resolution,
+// 0 until the first vsync. What fpscap 0 matches, since the current rate
+// may just be the mode the system picked for a slower frame rate.
+uint32_t AndroidFrame_MaxRefreshRate(void);
+
+// Frame rate the system wants us at or below, 0 when uncapped.
+uint32_t AndroidFrame_ThrottleRate(void);
+
+// Game thread: the frame rate the engine is pacing to, 0 for unlimited.
+void AndroidFrame_SetEngineRate(uint32_t hz);
+uint32_t AndroidFrame_EngineRate(void);
+
+#ifdef __cplusplus
+} // extern "C"
+#endif
+
+#endif // ANDROID_FRAME_H
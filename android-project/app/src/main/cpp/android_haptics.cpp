@@ -0,0 +1,73 @@
+/**
+ * Ring Racers Android - engine rumble
+ */
+
+#include "android_haptics.h"
+
+#include "rr_log.h"
+
+#include <atomic>
+
+#define LOG_TAG "RingRacers-Haptics"
+#define LOGW(...) RR_LOG(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
+
+namespace {
+
+JavaVM* g_vm = nullptr;
+jclass g_class = nullptr;
+jmethodID g_onRumble = nullptr;
+std::atomic<bool> g_ready{false};
+
+// Last level sent, game thread only
+unsigned int g_lastLow = 0;
+unsigned int g_lastHigh = 0;
+
+// Java stopped the rumble itself, the last level sent no longer holds
+std::atomic<bool> g_forget{false};
+
+} // namespace
+
+void AndroidHaptics_Attach(JNIEnv* env, jclass clazz)
+{
+    if (g_ready.load(std::memory_order_acquire)) return;
+
+    jmethodID method = env->GetStaticMethodID(clazz, "onNativeRumble", "(II)V");
+    if (!method) {
+        env->ExceptionClear();
+        LOGW("Haptics.onNativeRumble not found, rumble disabled");
+        return;
+    }
+
+    env->GetJavaVM(&g_vm);
+    g_class = static_cast<jclass>(env->NewGlobalRef(clazz));
+    g_onRumble = method;
+    g_ready.store(true, std::memory_order_release);
+}
+
+void AndroidHaptics_Forget()
+{
+    g_forget.store(true, std::memory_order_release);
+}
+
+extern "C" {
+
+void AndroidHaptics_Rumble(unsigned int low, unsigned int high)
+{
+    if (g_forget.load(std::memory_order_relaxed) && g_forget.exchange(false, std::memory_order_acquire)) {
+        g_lastLow = 0;
+        g_lastHigh = 0;
+    }
+    if (low == g_lastLow && high == g_lastHigh) return;
+    if (!g_ready.load(std::memory_order_acquire)) return;
+
+    // SDL attaches the game thread to the VM, so this never attaches
+    JNIEnv* env = nullptr;
+    if (g_vm->GetEnv(reinterpret_cast<void**>(&env), JNI_VERSION_1_6) != JNI_OK) return;
+
+    g_lastLow = low;
+    g_lastHigh = high;
+    env->CallStaticVoidMethod(g_class, g_onRumble, static_cast<jint>(low), static_cast<jint>(high));
+    if (env->ExceptionCheck()) env->ExceptionClear();
+}
+
+} // extern "C"
@@ -0,0 +1,34 @@
+/**
+ * Ring Racers Android - engine rumble
+ *
+ * Forwards rumble for the touch device (TOUCH_INPUT_DEVICE) to
+ * Haptics.java, which plays it on the phone's vibrator from its own
+ * thread. The engine sets a rumble level every tic; only changes cross
+ * JNI, and the Java side just queues them, so the game thread never
+ * waits on the vibrator service.
+ */
+
+#ifndef ANDROID_HAPTICS_H
+#define ANDROID_HAPTICS_H
+
+#ifdef __cplusplus
+#include <jni.h>
+
+// Cache Haptics.onNativeRumble. Called from Haptics.start().
+void AndroidHaptics_Attach(JNIEnv *env, jclass clazz);
+
+// Java stopped the rumble. Any thread; the next AndroidHaptics_Rumble
+// sends its level even if it is the one last sent.
+void AndroidHaptics_Forget();
+
+extern "C" {
+#endif
+
+// Game thread. Strengths are 0 .. 65535, as for SDL_GameControllerRumble.
+void AndroidHaptics_Rumble(unsigned int low, unsigned int high);
+
+#ifdef __cplusplus
+} // extern "C"
+#endif
+
+#endif // ANDROID_HAPTICS_H
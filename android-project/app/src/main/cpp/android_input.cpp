@@ -0,0 +1,240 @@
+/**
+ * Ring Racers Android - touch input ring
+ *
+ * Java publishes head with a release store after writing the records it
+ * covers; we load it with acquire, read the records, then release-store
+ * tail so Java only reuses slots we are finished with.
+ *
+ * Records from the JNI fallback path (ring full or not attached) go into a
+ * small locked side queue instead, and the drain merges both by enqueue
+ * time so a press and its release always reach the handler in order, no
+ * matter which path each one took.
+ *
+ * Latency histograms are fixed 250us buckets up to 50ms, which is enough
+ * resolution for a 35Hz tic and needs no allocation or locking; the
+ * buckets are relaxed atomics so Java can read them from the UI thread.
+ */
+
+#include "android_input.h"
+
+#include "rr_log.h"
+#include <stdio.h>
+#include <string.h>
+#include <time.h>
+
+#include <atomic>
+#include <mutex>
+
+#define LOG_TAG "RingRacers-Input"
+#define LOGI(...) RR_LOG(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
+#define LOGW(...) RR_LOG(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
+
+static_assert(sizeof(AndroidInputRecord) == ANDROID_INPUT_RECORD_SIZE, "record layout must match TouchInputRing.java");
+
+namespace {
+
+std::atomic<uint8_t*> g_buffer{nullptr};
+uint32_t g_mask;
+float g_axes[ANDROID_INPUT_MAX_AXES];
+
+constexpr int kBucketUs = 250;
+constexpr int kBuckets = 200; // Last one also holds everything slower
+
+struct LatencyHistogram {
+    std::atomic<uint32_t> buckets[kBuckets];
+};
+
+LatencyHistogram g_latency[ANDROID_LATENCY_NUM_STAGES];
+int64_t g_drainedAt; // Oldest drain not yet seen by a tic, 0 if none
+
+// Fallback records; only used while the ring is missing or full, so a lock is fine
+constexpr int kSideCapacity = 64;
+std::mutex g_sideLock;
+AndroidInputRecord g_side[kSideCapacity];
+int g_sideCount;
+
+int64_t NowNs() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return static_cast<int64_t>(ts.tv_sec) * 1000000000LL + ts.tv_nsec;
+}
+
+void RecordLatency(int stage, int64_t ns) {
+    int64_t bucket = ns > 0 ? ns / (kBucketUs * 1000LL) : 0;
+    if (bucket >= kBuckets) bucket = kBuckets - 1;
+
+    g_latency[stage].buckets[bucket].fetch_add(1, std::memory_order_relaxed);
+}
+
+// Upper edge of the bucket holding the pct'th percentile sample
+int32_t Percentile(const uint32_t* buckets, uint32_t count, int pct) {
+    uint32_t target = (static_cast<uint64_t>(count) * pct + 99) / 100;
+    uint32_t seen = 0;
+    for (int i = 0; i < kBuckets; i++) {
+        seen += buckets[i];
+        if (seen >= target) return (i + 1) * kBucketUs;
+    }
+    return kBuckets * kBucketUs;
+}
+
+int32_t* HeadPtr(uint8_t* buf) { return reinterpret_cast<int32_t*>(buf + ANDROID_INPUT_HEAD_OFFSET); }
+int32_t* TailPtr(uint8_t* buf) { return reinterpret_cast<int32_t*>(buf + ANDROID_INPUT_TAIL_OFFSET); }
+
+void Post(const AndroidInputRecord& rec) {
+    std::lock_guard<std::mutex> lock(g_sideLock);
+    if (g_sideCount == kSideCapacity) {
+        LOGW("Input side queue full, dropping record type %d code %d", rec.type, rec.code);
+        return;
+    }
+    g_side[g_sideCount++] = rec;
+}
+
+void Deliver(const AndroidInputRecord& rec, int64_t now, AndroidInputHandler handler, void* userdata) {
+    if (rec.touch_ns > 0) {
+        RecordLatency(ANDROID_LATENCY_TOUCH_TO_QUEUE, rec.enqueue_ns - rec.touch_ns);
+    }
+    RecordLatency(ANDROID_LATENCY_QUEUE_TO_EVENT, now - rec.enqueue_ns);
+
+    if (rec.type == ANDROID_INPUT_AXIS && rec.code < ANDROID_INPUT_MAX_AXES) {
+        g_axes[rec.code] = rec.value.f;
+    }
+    if (handler) handler(&rec, userdata);
+}
+
+} // namespace
+
+extern "C" {
+
+void AndroidInput_Attach(void* buf, int32_t capacity) {
+    if (buf && (capacity <= 0 || (capacity & (capacity - 1)) != 0)) {
+        LOGW("Input ring capacity %d is not a power of two, ignoring", capacity);
+        return;
+    }
+
+    g_mask = buf ? static_cast<uint32_t>(capacity - 1) : 0;
+    g_buffer.store(static_cast<uint8_t*>(buf), std::memory_order_release);
+
+    if (buf) LOGI("Input ring attached, %d records", capacity);
+}
+
+void AndroidInput_PostControl(int control, int pressed) {
+    AndroidInputRecord rec = {};
+    rec.type = ANDROID_INPUT_CONTROL;
+    rec.code = static_cast<uint8_t>(control);
+    rec.value.i = pressed ? 1 : 0;
+    rec.enqueue_ns = NowNs();
+    Post(rec);
+}
+
+void AndroidInput_PostAxis(int axis, float value) {
+    AndroidInputRecord rec = {};
+    rec.type = ANDROID_INPUT_AXIS;
+    rec.code = static_cast<uint8_t>(axis);
+    rec.value.f = value;
+    rec.enqueue_ns = NowNs();
+    Post(rec);
+}
+
+int AndroidInput_Drain(AndroidInputHandler handler, void* userdata) {
+    AndroidInputRecord side[kSideCapacity];
+    int sideCount;
+    {
+        std::lock_guard<std::mutex> lock(g_sideLock);
+        sideCount = g_sideCount;
+        memcpy(side, g_side, sideCount * sizeof(side[0]));
+        g_sideCount = 0;
+    }
+
+    uint8_t* buf = g_buffer.load(std::memory_order_acquire);
+
+    // Indices are free-running; unsigned arithmetic handles the wrap
+    uint32_t head = buf ? static_cast<uint32_t>(__atomic_load_n(HeadPtr(buf), __ATOMIC_ACQUIRE)) : 0;
+    uint32_t tail = buf ? static_cast<uint32_t>(__atomic_load_n(TailPtr(buf), __ATOMIC_RELAXED)) : 0;
+    int count = 0;
+    int s = 0;
+    int64_t now = (tail != head || sideCount > 0) ? NowNs() : 0;
+
+    // Both sources are in enqueue order on their own; merge them
+    AndroidInputRecord rec;
+    bool haveRing = false;
+    for (;;) {
+        if (!haveRing && tail != head) {
+            memcpy(&rec, buf + ANDROID_INPUT_RECORDS_OFFSET + (tail & g_mask) * ANDROID_INPUT_RECORD_SIZE, sizeof(rec));
+            haveRing = true;
+        }
+
+        if (haveRing && (s == sideCount || rec.enqueue_ns <= side[s].enqueue_ns)) {
+            Deliver(rec, now, handler, userdata);
+            haveRing = false;
+            tail++;
+        } else if (s < sideCount) {
+            Deliver(side[s++], now, handler, userdata);
+        } else {
+            break;
+        }
+        count++;
+    }
+
+    if (count > 0 && g_drainedAt == 0) {
+        g_drainedAt = now;
+    }
+
+    if (buf) __atomic_store_n(TailPtr(buf), static_cast<int32_t>(tail), __ATOMIC_RELEASE);
+    return count;
+}
+
+float AndroidInput_GetAxis(int axis) {
+    if (axis < 0 || axis >= ANDROID_INPUT_MAX_AXES) return 0.0f;
+    return g_axes[axis];
+}
+
+void AndroidInput_NoteTiccmd(void) {
+    if (g_drainedAt == 0) return;
+    RecordLatency(ANDROID_LATENCY_EVENT_TO_TIC, NowNs() - g_drainedAt);
+    g_drainedAt = 0;
+}
+
+void AndroidInput_GetLatency(int stage, AndroidLatencySummary* out) {
+    memset(out, 0, sizeof(*out));
+    if (stage < 0 || stage >= ANDROID_LATENCY_NUM_STAGES) return;
+
+    // Snapshot so all three percentiles describe the same samples
+    uint32_t buckets[kBuckets];
+    uint32_t count = 0;
+    for (int i = 0; i < kBuckets; i++) {
+        buckets[i] = g_latency[stage].buckets[i].load(std::memory_order_relaxed);
+        count += buckets[i];
+    }
+    if (count == 0) return;
+
+    out->count = count;
+    out->p50_us = Percentile(buckets, count, 50);
+    out->p95_us = Percentile(buckets, count, 95);
+    out->p99_us = Percentile(buckets, count, 99);
+}
+
+void AndroidInput_ResetLatency(void) {
+    for (LatencyHistogram& h : g_latency) {
+        for (auto& b : h.buckets) b.store(0, std::memory_order_relaxed);
+    }
+}
+
+char* AndroidInput_FormatLatency(char* buf, size_t size) {
+    static const char* const names[ANDROID_LATENCY_NUM_STAGES] = {
+        "touch->queue", "queue->event", "event->tic",
+    };
+
+    size_t used = 0;
+    buf[0] = '\0';
+    for (int i = 0; i < ANDROID_LATENCY_NUM_STAGES && used < size; i++) {
+        AndroidLatencySummary s;
+        AndroidInput_GetLatency(i, &s);
+        int n = snprintf(buf + used, size - used, "%s%s: n=%u p50=%dus p95=%dus p99=%dus",
+            i ? ", " : "", names[i], s.count, s.p50_us, s.p95_us, s.p99_us);
+        if (n < 0) break;
+        used += static_cast<size_t>(n);
+    }
+    return buf;
+}
+
+} // extern "C"
@@ -0,0 +1,107 @@
+/**
+ * Ring Racers Android - touch input ring
+ *
+ * Single-producer/single-consumer ring in a direct ByteBuffer shared with
+ * TouchInputRing.java. The UI thread appends fixed-size records and bumps
+ * the head index; the game thread drains everything up to head once per
+ * I_GetEvent and bumps the tail index. No JNI call or lock per event.
+ *
+ * Layout (native byte order):
+ *   [0]   int32 head   written by Java
+ *   [64]  int32 tail   written by native
+ *   [128] records, ANDROID_INPUT_RECORD_SIZE bytes each
+ *
+ * Records carry CLOCK_MONOTONIC timestamps of the originating touch and
+ * of the enqueue, which feed the input latency histograms below.
+ */
+
+#ifndef ANDROID_INPUT_H
+#define ANDROID_INPUT_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+#define ANDROID_INPUT_HEAD_OFFSET 0
+#define ANDROID_INPUT_TAIL_OFFSET 64
+#define ANDROID_INPUT_RECORDS_OFFSET 128
+#define ANDROID_INPUT_RECORD_SIZE 24
+
+#define ANDROID_INPUT_MAX_AXES 8
+
+enum
+{
+    ANDROID_INPUT_CONTROL = 1, // code = TouchControl, value.i = pressed
+    ANDROID_INPUT_AXIS = 2,    // code = axis, value.f = -1.0 .. 1.0
+};
+
+typedef struct
+{
+    uint8_t type;
+    uint8_t code;
+    uint16_t reserved;
+    union
+    {
+        int32_t i;
+        float f;
+    } value;
+    int64_t touch_ns;   // MotionEvent time, 0 if unknown
+    int64_t enqueue_ns; // When Java wrote the record
+} AndroidInputRecord;
+
+// Input latency stages, in path order
+enum
+{
+    ANDROID_LATENCY_TOUCH_TO_QUEUE, // MotionEvent -> record in the ring
+    ANDROID_LATENCY_QUEUE_TO_EVENT, // record in the ring -> drained into the event queue
+    ANDROID_LATENCY_EVENT_TO_TIC,   // drained -> next G_BuildTiccmd
+    ANDROID_LATENCY_NUM_STAGES
+};
+
+typedef struct
+{
+    uint32_t count;
+    int32_t p50_us;
+    int32_t p95_us;
+    int32_t p99_us;
+} AndroidLatencySummary;
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef void (*AndroidInputHandler)(const AndroidInputRecord *rec, void *userdata);
+
+// Start consuming from buf, capacity records long (a power of two).
+// Passing NULL detaches.
+void AndroidInput_Attach(void *buf, int32_t capacity);
+
+// Fallback for when the ring is full or not attached: queue a record
+// natively, from any thread. It is drained with the ring, in enqueue order.
+void AndroidInput_PostControl(int control, int pressed);
+void AndroidInput_PostAxis(int axis, float value);
+
+// Hand every pending record, from the ring and the fallback queue, to
+// handler in order. Axis records are also coalesced into the latest value
+// per axis. Returns the number drained.
+int AndroidInput_Drain(AndroidInputHandler handler, void *userdata);
+
+// Latest drained value of axis, 0 if never set.
+float AndroidInput_GetAxis(int axis);
+
+// Called from G_BuildTiccmd; closes the EVENT_TO_TIC stage for whatever
+// was drained since the last call.
+void AndroidInput_NoteTiccmd(void);
+
+// Percentiles of one stage since the last reset.
+void AndroidInput_GetLatency(int stage, AndroidLatencySummary *out);
+
+void AndroidInput_ResetLatency(void);
+
+// Human-readable summary of all stages, for logs. Returns buf.
+char *AndroidInput_FormatLatency(char *buf, size_t size);
+
+#ifdef __cplusplus
+} // extern "C"
+#endif
+
+#endif // ANDROID_INPUT_H
@@ -6,18 +6,26 @@
  */
 
 #include <jni.h>
-#include <android/log.h>
+#include "rr_log.h"
 #include <android/native_window.h>
 #include <android/native_window_jni.h>
 #include <string>
 #include <cstdlib>
 #include <cstring>
+#include <unistd.h>
+
+#include "android_assets.h"
+#include "android_dynres.h"
+#include "android_frame.h"
+#include "android_haptics.h"
+#include "android_input.h"
+#include "touch_input.h"
 
 #define LOG_TAG "RingRacers"
-#define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
-#define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
-#define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
-#define LOGW(...) __android_log_print(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
+#define LOGI(...) RR_LOG(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
+#define LOGE(...) RR_LOG(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+#define LOGD(...) RR_LOG(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
+#define LOGW(...) RR_LOG(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
 
 // SDL headers
 #ifdef HAVE_SDL
@@ -38,6 +46,7 @@ static JavaVM* g_javaVM = nullptr;
 static jobject g_activityRef = nullptr;
 static bool g_gameRunning = false;
 static char* g_homePath = nullptr;
+static jobject g_inputRing = nullptr;
 
 // JNI OnLoad
 JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
@@ -103,6 +112,41 @@ Java_org_kartkrew_ringracers_RingRacersActivity_nativeGetGamePath(
     return env->NewStringUTF(path);
 }
 
+// Register a game file stored uncompressed inside the APK
+JNIEXPORT void JNICALL
+Java_org_kartkrew_ringracers_AssetCopier_nativeRegisterAsset(
+    JNIEnv* env,
+    jclass clazz,
+    jstring path,
+    jint fd,
+    jlong offset,
+    jlong length)
+{
+    const char* pathStr = env->GetStringUTFChars(path, nullptr);
+    if (!pathStr) {
+        close(fd);
+        return;
+    }
+
+    AndroidAssets_Register(pathStr, fd, offset, length);
+    env->ReleaseStringUTFChars(path, pathStr);
+}
+
+// Mark a game file as still being extracted (or done)
+JNIEXPORT void JNICALL
+Java_org_kartkrew_ringracers_AssetCopier_nativeSetAssetPending(
+    JNIEnv* env,
+    jclass clazz,
+    jstring path,
+    jboolean pending)
+{
+    const char* pathStr = env->GetStringUTFChars(path, nullptr);
+    if (!pathStr) return;
+
+    AndroidAssets_SetPending(pathStr, pending ? 1 : 0);
+    env->ReleaseStringUTFChars(path, pathStr);
+}
+
 // Initialize and start the game
 JNIEXPORT jint JNICALL
 Java_org_kartkrew_ringracers_RingRacersActivity_nativeInit(
@@ -170,29 +214,21 @@ Java_org_kartkrew_ringracers_RingRacersActivity_nativeQuit(
     }
 }
 
-// Touch Controls - Send key event
+// Touch Controls - Send control event (fallback when the input ring is full
+// or unavailable). Queued natively and drained with the ring, so it reaches
+// the game as the same touch device
 JNIEXPORT void JNICALL
-Java_org_kartkrew_ringracers_TouchControlsView_nativeSendKey(
+Java_org_kartkrew_ringracers_TouchControlsView_nativeSendControl(
     JNIEnv* env,
     jclass clazz,
-    jint keyCode,
+    jint control,
     jboolean pressed)
 {
-    LOGD("Key: code=%d pressed=%d", keyCode, pressed);
-    
-#ifdef HAVE_SDL
-    SDL_Event event;
-    SDL_memset(&event, 0, sizeof(event));
-    event.type = pressed ? SDL_KEYDOWN : SDL_KEYUP;
-    event.key.keysym.scancode = (SDL_Scancode)keyCode;
-    event.key.keysym.sym = SDL_GetKeyFromScancode((SDL_Scancode)keyCode);
-    event.key.state = pressed ? SDL_PRESSED : SDL_RELEASED;
-    event.key.repeat = 0;
-    SDL_PushEvent(&event);
-#endif
+    RR_TRACE(LOG_TAG, "Control %d -> %s", control, pressed ? "PRESSED" : "RELEASED");
+    AndroidInput_PostControl(control, pressed ? 1 : 0);
 }
 
-// Touch Controls - Send axis event (for D-Pad as analog stick)
+// Touch Controls - Send axis event (for D-Pad as analog stick), same fallback
 JNIEXPORT void JNICALL
 Java_org_kartkrew_ringracers_TouchControlsView_nativeSendAxis(
     JNIEnv* env,
@@ -200,20 +236,96 @@ Java_org_kartkrew_ringracers_TouchControlsView_nativeSendAxis(
     jint axis,
     jfloat value)
 {
-    LOGD("Axis: axis=%d value=%.2f", axis, value);
-    
-#ifdef HAVE_SDL
-    // Convert -1.0 to 1.0 range to SDL axis range (-32768 to 32767)
-    Sint16 axisValue = (Sint16)(value * 32767.0f);
-    
-    SDL_Event event;
-    SDL_memset(&event, 0, sizeof(event));
-    event.type = SDL_JOYAXISMOTION;
-    event.jaxis.which = 0;  // Virtual joystick ID
-    event.jaxis.axis = (Uint8)axis;
-    event.jaxis.value = axisValue;
-    SDL_PushEvent(&event);
-#endif
+    RR_TRACE(LOG_TAG, "Axis: axis=%d value=%.2f", axis, value);
+    AndroidInput_PostAxis(axis, value);
+}
+
+// Touch Controls - Share the input ring buffer with the game thread
+JNIEXPORT void JNICALL
+Java_org_kartkrew_ringracers_TouchInputRing_nativeAttach(
+    JNIEnv* env,
+    jclass clazz,
+    jobject buffer,
+    jint capacity)
+{
+    void* addr = buffer ? env->GetDirectBufferAddress(buffer) : nullptr;
+    if (buffer && !addr) {
+        LOGE("Input ring is not a direct buffer");
+        return;
+    }
+
+    AndroidInput_Attach(addr, capacity);
+
+    // Keep the buffer alive for as long as native code reads it
+    if (g_inputRing) env->DeleteGlobalRef(g_inputRing);
+    g_inputRing = buffer ? env->NewGlobalRef(buffer) : nullptr;
+}
+
+// Input latency histograms as one log-friendly line
+JNIEXPORT jstring JNICALL
+Java_org_kartkrew_ringracers_InputLatency_nativeDump(
+    JNIEnv* env,
+    jclass clazz,
+    jboolean reset)
+{
+    char buf[512];
+    AndroidInput_FormatLatency(buf, sizeof(buf));
+    if (reset) AndroidInput_ResetLatency();
+    return env->NewStringUTF(buf);
+}
+
+// Haptics - Let engine rumble reach Haptics.onNativeRumble
+JNIEXPORT void JNICALL
+Java_org_kartkrew_ringracers_Haptics_nativeAttach(
+    JNIEnv* env,
+    jclass clazz)
+{
+    AndroidHaptics_Attach(env, clazz);
+}
+
+// Haptics - Java stopped the rumble, resend the engine's level on change
+JNIEXPORT void JNICALL
+Java_org_kartkrew_ringracers_Haptics_nativeForgetRumble(
+    JNIEnv* env,
+    jclass clazz)
+{
+    AndroidHaptics_Forget();
+}
+
+// Frame pacing - One Choreographer vsync; returns the rate the engine is
+// pacing to so FramePacer can ask the display for it
+JNIEXPORT jint JNICALL
+Java_org_kartkrew_ringracers_FramePacer_nativeVsync(
+    JNIEnv* env,
+    jclass clazz,
+    jlong periodNanos,
+    jint maxRefreshHz,
+    jint throttleHz)
+{
+    AndroidFrame_OnVsync(periodNanos,
+        maxRefreshHz > 0 ? static_cast<uint32_t>(maxRefreshHz) : 0,
+        throttleHz > 0 ? static_cast<uint32_t>(throttleHz) : 0);
+    return static_cast<jint>(AndroidFrame_EngineRate());
+}
+
+// Dynamic resolution - Settings in, render scale out
+JNIEXPORT void JNICALL
+Java_org_kartkrew_ringracers_DynamicResolution_nativeConfigure(
+    JNIEnv* env,
+    jclass clazz,
+    jfloat targetFps,
+    jfloat minScale,
+    jfloat maxScale)
+{
+    AndroidDynRes_Configure(targetFps, minScale, maxScale);
+}
+
+JNIEXPORT jfloat JNICALL
+Java_org_kartkrew_ringracers_DynamicResolution_nativeGetScale(
+    JNIEnv* env,
+    jclass clazz)
+{
+    return AndroidDynRes_Scale();
 }
 
 // Check if game is running
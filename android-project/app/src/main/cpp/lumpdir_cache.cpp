@@ -0,0 +1,256 @@
+/**
+ * Ring Racers Android - pk3 lump directory cache
+ *
+ * One file per pk3 under $RINGRACERS_LUMPCACHE, named after a hash of the
+ * pk3's path. The Java side (LumpDirCache.java) creates the directory and
+ * wipes it when the app is updated; entries are additionally keyed by
+ * path, size and mtime so a replaced pk3 never matches a stale entry.
+ *
+ * Layout, native endianness (it never leaves the device):
+ *   CacheHeader
+ *   path bytes, padded to 8
+ *   CacheLump[numlumps]
+ *   string table (fullname, longname for each lump)
+ */
+
+#include "lumpdir_cache.h"
+#include "android_assets.h"
+
+#include "rr_log.h"
+#include <fcntl.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include <string>
+#include <vector>
+
+#include "doomdef.h"
+#include "z_zone.h"
+
+#define LOG_TAG "RingRacers-LumpCache"
+#define LOGI(...) RR_LOG(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
+#define LOGW(...) RR_LOG(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
+
+namespace {
+
+constexpr char kMagic[4] = {'R', 'R', 'L', 'D'};
+constexpr uint32_t kVersion = 1;
+
+struct CacheHeader {
+    char magic[4];
+    uint32_t version;
+    int64_t size;
+    int64_t mtime;
+    uint32_t pathlen;
+    uint32_t numlumps;
+    uint32_t strsize;
+    uint32_t reserved;
+};
+
+struct CacheLump {
+    uint64_t position;
+    uint64_t disksize;
+    uint64_t size;
+    uint32_t hash;
+    uint32_t compression;
+    uint32_t fullname_off;
+    uint32_t fullname_len;
+    uint32_t longname_off;
+    uint32_t longname_len;
+    char name[8];
+};
+
+size_t Align8(size_t n) {
+    return (n + 7) & ~static_cast<size_t>(7);
+}
+
+const char* CacheDir() {
+    const char* dir = getenv("RINGRACERS_LUMPCACHE");
+    return (dir && *dir) ? dir : nullptr;
+}
+
+std::string CachePath(const char* dir, const char* filename) {
+    // FNV-1a, only needs to spread paths over file names
+    uint64_t h = 1469598103934665603ULL;
+    for (const char* p = filename; *p; p++) {
+        h = (h ^ static_cast<unsigned char>(*p)) * 1099511628211ULL;
+    }
+
+    char name[32];
+    snprintf(name, sizeof name, "%016llx.lumpdir", static_cast<unsigned long long>(h));
+    return std::string(dir) + "/" + name;
+}
+
+// Size and mtime identifying the pk3 behind handle
+bool Identify(const char* filename, FILE* handle, int64_t* size, int64_t* mtime) {
+    int fd = fileno(handle);
+    if (fd >= 0) {
+        struct stat st;
+        if (fstat(fd, &st) != 0) return false;
+        *size = st.st_size;
+        *mtime = st.st_mtime;
+        return true;
+    }
+
+    // Read in place from the APK
+    return AndroidAssets_Stat(filename, size, mtime) != 0;
+}
+
+} // namespace
+
+extern "C" {
+
+lumpinfo_t* LumpDirCache_Load(const char* filename, FILE* handle, UINT16* numlumps) {
+    const char* dir = CacheDir();
+    int64_t size, mtime;
+    if (!dir || !Identify(filename, handle, &size, &mtime)) return nullptr;
+
+    std::string path = CachePath(dir, filename);
+    int fd = open(path.c_str(), O_RDONLY | O_CLOEXEC);
+    if (fd < 0) return nullptr;
+
+    struct stat st;
+    if (fstat(fd, &st) != 0 || st.st_size < static_cast<off_t>(sizeof(CacheHeader))) {
+        close(fd);
+        return nullptr;
+    }
+
+    size_t mapsize = static_cast<size_t>(st.st_size);
+    void* map = mmap(nullptr, mapsize, PROT_READ, MAP_PRIVATE, fd, 0);
+    close(fd);
+    if (map == MAP_FAILED) return nullptr;
+
+    const char* base = static_cast<const char*>(map);
+    const CacheHeader* hdr = reinterpret_cast<const CacheHeader*>(base);
+    lumpinfo_t* lumpinfo = nullptr;
+
+    size_t fnlen = strlen(filename);
+    size_t lumpsoff = Align8(sizeof(CacheHeader) + hdr->pathlen);
+    size_t stroff = lumpsoff + static_cast<size_t>(hdr->numlumps) * sizeof(CacheLump);
+
+    bool valid = memcmp(hdr->magic, kMagic, 4) == 0
+        && hdr->version == kVersion
+        && hdr->size == size
+        && hdr->mtime == mtime
+        && hdr->pathlen == fnlen
+        && hdr->numlumps > 0 && hdr->numlumps <= UINT16_MAX
+        && stroff + hdr->strsize <= mapsize
+        && memcmp(base + sizeof(CacheHeader), filename, fnlen) == 0;
+
+    if (valid) {
+        const CacheLump* src = reinterpret_cast<const CacheLump*>(base + lumpsoff);
+        const char* strings = base + stroff;
+
+        lumpinfo = static_cast<lumpinfo_t*>(Z_Malloc(hdr->numlumps * sizeof(*lumpinfo), PU_STATIC, NULL));
+
+        for (uint32_t i = 0; i < hdr->numlumps; i++) {
+            const CacheLump& c = src[i];
+            lumpinfo_t* l = &lumpinfo[i];
+
+            if (c.fullname_off + c.fullname_len > hdr->strsize
+                || c.longname_off + c.longname_len > hdr->strsize
+                || c.compression > CM_UNSUPPORTED) {
+                // Torn or corrupt; free what we built and fall back to the zip
+                while (i--) {
+                    Z_Free(lumpinfo[i].longname);
+                    Z_Free(lumpinfo[i].fullname);
+                }
+                Z_Free(lumpinfo);
+                lumpinfo = nullptr;
+                break;
+            }
+
+            l->position = c.position;
+            l->disksize = c.disksize;
+            l->size = c.size;
+            l->hash = c.hash;
+            l->compression = static_cast<compmethod>(c.compression);
+
+            memcpy(l->name, c.name, 8);
+            l->name[8] = '\0';
+
+            l->longname = static_cast<char*>(Z_Calloc(c.longname_len + 1, PU_STATIC, NULL));
+            memcpy(l->longname, strings + c.longname_off, c.longname_len);
+
+            l->fullname = static_cast<char*>(Z_Calloc(c.fullname_len + 1, PU_STATIC, NULL));
+            memcpy(l->fullname, strings + c.fullname_off, c.fullname_len);
+        }
+    }
+
+    if (lumpinfo) {
+        *numlumps = static_cast<UINT16>(hdr->numlumps);
+        LOGI("%s: %u lumps from cache", filename, hdr->numlumps);
+    }
+
+    munmap(map, mapsize);
+    return lumpinfo;
+}
+
+void LumpDirCache_Store(const char* filename, FILE* handle, const lumpinfo_t* lumps, UINT16 numlumps) {
+    const char* dir = CacheDir();
+    int64_t size, mtime;
+    if (!dir || !numlumps || !Identify(filename, handle, &size, &mtime)) return;
+
+    CacheHeader hdr = {};
+    memcpy(hdr.magic, kMagic, 4);
+    hdr.version = kVersion;
+    hdr.size = size;
+    hdr.mtime = mtime;
+    hdr.pathlen = static_cast<uint32_t>(strlen(filename));
+    hdr.numlumps = numlumps;
+
+    std::vector<CacheLump> records(numlumps);
+    std::string strings;
+
+    for (UINT16 i = 0; i < numlumps; i++) {
+        const lumpinfo_t& l = lumps[i];
+        CacheLump& c = records[i];
+
+        c.position = l.position;
+        c.disksize = l.disksize;
+        c.size = l.size;
+        c.hash = l.hash;
+        c.compression = static_cast<uint32_t>(l.compression);
+        memcpy(c.name, l.name, 8);
+
+        c.fullname_off = static_cast<uint32_t>(strings.size());
+        c.fullname_len = static_cast<uint32_t>(strlen(l.fullname));
+        strings.append(l.fullname, c.fullname_len);
+
+        c.longname_off = static_cast<uint32_t>(strings.size());
+        c.longname_len = static_cast<uint32_t>(strlen(l.longname));
+        strings.append(l.longname, c.longname_len);
+    }
+    hdr.strsize = static_cast<uint32_t>(strings.size());
+
+    std::string path = CachePath(dir, filename);
+    std::string tmp = path + ".tmp";
+
+    FILE* f = fopen(tmp.c_str(), "wb");
+    if (!f) {
+        LOGW("Can't write %s", tmp.c_str());
+        return;
+    }
+
+    static const char pad[8] = {};
+    size_t padlen = Align8(sizeof hdr + hdr.pathlen) - (sizeof hdr + hdr.pathlen);
+
+    bool ok = fwrite(&hdr, sizeof hdr, 1, f) == 1
+        && fwrite(filename, 1, hdr.pathlen, f) == hdr.pathlen
+        && fwrite(pad, 1, padlen, f) == padlen
+        && fwrite(records.data(), sizeof(CacheLump), numlumps, f) == numlumps
+        && fwrite(strings.data(), 1, strings.size(), f) == strings.size();
+    ok = (fclose(f) == 0) && ok;
+
+    // Rename last, a crash never leaves a half-written entry under the real name
+    if (!ok || rename(tmp.c_str(), path.c_str()) != 0) {
+        unlink(tmp.c_str());
+        LOGW("Failed to cache lump directory of %s", filename);
+    }
+}
+
+} // extern "C"
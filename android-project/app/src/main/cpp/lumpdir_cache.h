@@ -0,0 +1,32 @@
+/**
+ * Ring Racers Android - pk3 lump directory cache
+ *
+ * Stores the lumpinfo_t array built from a pk3's zip central directory
+ * (with local header offsets already resolved) so a warm start can map
+ * it back in instead of re-reading the zip.
+ */
+
+#ifndef LUMPDIR_CACHE_H
+#define LUMPDIR_CACHE_H
+
+#include <stdio.h>
+
+#include "doomtype.h"
+#include "w_wad.h"
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+// Rebuild the lump directory of filename from the cache, or NULL if there
+// is no entry or it doesn't match the file's path, size and mtime.
+lumpinfo_t *LumpDirCache_Load(const char *filename, FILE *handle, UINT16 *numlumps);
+
+// Save a freshly parsed lump directory for the next launch.
+void LumpDirCache_Store(const char *filename, FILE *handle, const lumpinfo_t *lumps, UINT16 numlumps);
+
+#ifdef __cplusplus
+} // extern "C"
+#endif
+
+#endif // LUMPDIR_CACHE_H
@@ -0,0 +1,65 @@
+/**
+ * Ring Racers Android - logging levels
+ *
+ * RR_LOG_LEVEL and RR_LOG_TRACE come from the Gradle build type (see
+ * build.gradle.kts), and match BuildConfig.LOG_LEVEL / LOG_TRACE on the
+ * Java side (RRLog.java). Anything below the level is a constant-false
+ * branch, so the compiler drops the call and its argument formatting.
+ *
+ * RR_TRACE is for hot paths such as per-event input handling. It is
+ * compiled out unless RR_LOG_TRACE is set, and even then each call site
+ * logs at most RR_TRACE_PER_SEC lines per second.
+ */
+
+#ifndef RR_LOG_H
+#define RR_LOG_H
+
+#include <android/log.h>
+#include <time.h>
+
+#ifndef RR_LOG_LEVEL
+#define RR_LOG_LEVEL ANDROID_LOG_INFO
+#endif
+
+#ifndef RR_LOG_TRACE
+#define RR_LOG_TRACE 0
+#endif
+
+#define RR_TRACE_PER_SEC 4
+
+#define RR_LOG(prio, tag, ...) \
+    do { \
+        if ((prio) >= RR_LOG_LEVEL) __android_log_print((prio), (tag), __VA_ARGS__); \
+    } while (0)
+
+typedef struct
+{
+    long window; // Second the count belongs to
+    int count;
+} RRLogLimiter;
+
+static inline int RRLog_TraceAllowed(RRLogLimiter *limiter)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC_COARSE, &ts);
+
+    if (ts.tv_sec != limiter->window)
+    {
+        limiter->window = ts.tv_sec;
+        limiter->count = 0;
+    }
+    return limiter->count++ < RR_TRACE_PER_SEC;
+}
+
+#if RR_LOG_TRACE
+#define RR_TRACE(tag, ...) \
+    do { \
+        static RRLogLimiter rr_trace_limiter_; \
+        if (RRLog_TraceAllowed(&rr_trace_limiter_)) \
+            __android_log_print(ANDROID_LOG_DEBUG, (tag), __VA_ARGS__); \
+    } while (0)
+#else
+#define RR_TRACE(tag, ...) do {} while (0)
+#endif
+
+#endif // RR_LOG_H
@@ -0,0 +1,44 @@
+/**
+ * Ring Racers Android - Touch Input Handler
+ *
+ * The one binding table between touch controls and the game. Java sends
+ * bare control IDs (TouchControl.java); what they map to lives only here.
+ */
+
+#ifndef TOUCH_INPUT_H
+#define TOUCH_INPUT_H
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+// Game control IDs, must match TouchControl.java
+enum TouchControl
+{
+    TOUCH_CONTROL_ACCELERATE = 0,  // Gas/accelerate
+    TOUCH_CONTROL_BRAKE,           // Brake
+    TOUCH_CONTROL_DRIFT,           // Drift/powerslide
+    TOUCH_CONTROL_ITEM,            // Use item
+    TOUCH_CONTROL_LOOKBACK,        // Look behind
+    TOUCH_CONTROL_PAUSE,           // Pause menu
+    TOUCH_CONTROL_TURNLEFT,        // Turn left (D-Pad)
+    TOUCH_CONTROL_TURNRIGHT,       // Turn right (D-Pad)
+    TOUCH_CONTROL_AIMUP,           // Aim up (D-Pad)
+    TOUCH_CONTROL_AIMDOWN,         // Aim down (D-Pad)
+    TOUCH_CONTROL_SPINDASH,        // Spindash, from gestures only
+    TOUCH_CONTROL_NUM
+};
+
+// Engine device ID the overlay registers as a gamepad. SDL gamepads use
+// 1 + joystick instance ID, which never climbs this high in practice.
+#define TOUCH_INPUT_DEVICE 0x7FFF
+
+// Gamepad input (KEY_JOY1/KEY_HAT1/KEY_AXIS1 + n) bound to control, so
+// touch hits the player's gamepad binds. 0 if none or out of range.
+int TouchInput_GamepadInput(int control);
+
+#ifdef __cplusplus
+} // extern "C"
+#endif
+
+#endif // TOUCH_INPUT_H
@@ -1,25 +1,60 @@
 package org.kartkrew.ringracers;
 
 import android.content.Context;
-import android.content.res.AssetManager;
+import android.content.res.AssetFileDescriptor;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Copies game assets from APK to external storage on first run.
+ * Copies game assets from APK to external storage, re-copying only what
+ * changed according to the packaged AssetManifest.
  */
 public class AssetCopier {
     private static final String TAG = "RingRacers-Assets";
-    private static final int BUFFER_SIZE = 8192;
+    private static final String INSTALLED_MANIFEST = ".assets_manifest";
+    private static final String LEGACY_MARKER = ".assets_copied";
     
     private final Context context;
     private final String destPath;
     
+    // Base game files in the order the engine opens them at startup
+    private static final String[] LOAD_ORDER = {
+        "bios.pk3", "scripts.pk3", "gfx.pk3",
+        "textures_general.pk3", "textures_segazones.pk3", "textures_originalzones.pk3",
+        "chars.pk3", "followers.pk3", "maps.pk3", "unlocks.pk3", "staffghosts.pk3",
+        "patch.pk3", "sounds.pk3", "music.pk3", "altmusic.pk3"
+    };
+    
+    /**
+     * Extraction progress, reported on the copying thread.
+     */
+    public interface ProgressListener {
+        void onProgress(long bytesDone, long bytesTotal);
+        void onFinished(boolean success);
+    }
+    
+    private boolean useApkAssets = false;
+    private final Set<String> mappedAssets = new HashSet<>();
+    
+    private final List<AssetExtractor.Job> jobs = new ArrayList<>();
+    private AssetManifest packagedManifest;
+    private AssetIndex index;
+    private AssetManifest installed;
+    private File installedFile;
+    
+    // Native methods
+    private static native void nativeRegisterAsset(String path, int fd, long offset, long length);
+    private static native void nativeSetAssetPending(String path, boolean pending);
+    
     public AssetCopier(Context context) {
         this.context = context;
         File extDir = context.getExternalFilesDir(null);
@@ -31,45 +66,351 @@ public class AssetCopier {
     }
     
     /**
-     * Copy all game assets if not already present.
-     * Call this on first launch.
+     * Read uncompressed pk3s in place from the APK instead of copying them.
+     * Anything that can't be mapped is still copied as usual.
+     */
+    public void setUseApkAssets(boolean use) {
+        useApkAssets = use;
+    }
+    
+    /**
+     * Copy all game assets that are missing, changed or truncated.
+     * Blocks until done; see prepare() and extractInBackground() for the
+     * non-blocking version.
      */
     public void copyAssetsIfNeeded() {
+        prepare();
+        extract(null);
+    }
+    
+    /**
+     * Work out which files need copying and tell the native side to wait
+     * for each of them. Cheap enough for the UI thread; must run before
+     * the game thread starts.
+     */
+    public void prepare() {
         File destDir = new File(destPath);
         if (!destDir.exists()) {
             destDir.mkdirs();
         }
         
-        // Check if already copied (marker file)
-        File marker = new File(destPath, ".assets_copied");
-        if (marker.exists()) {
-            Log.i(TAG, "Assets already copied");
-            return;
+        // Loaded once, answers all directory questions from memory
+        AssetManifest packaged = loadPackagedManifest();
+        index = packaged != null ? new AssetIndex(packaged) : null;
+        
+        // APK descriptors don't survive the process, map every launch
+        if (useApkAssets) {
+            mapAssetFolder("gamedata", "");
         }
         
-        Log.i(TAG, "Copying game assets to " + destPath);
+        jobs.clear();
+        
+        if (packaged != null) {
+            planSync(packaged);
+        } else {
+            planLegacy();
+        }
+        
+        for (AssetExtractor.Job job : jobs) {
+            setPending(relativePath(job), true);
+        }
+    }
+    
+    /**
+     * True if prepare() found anything to copy.
+     */
+    public boolean needsExtraction() {
+        return !jobs.isEmpty();
+    }
+    
+    /**
+     * Copy what prepare() found on a background thread. The game can start
+     * right away; it only blocks when opening a file still being copied.
+     */
+    public void extractInBackground(ProgressListener listener) {
+        Thread thread = new Thread(() -> extract(listener), "AssetCopier");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+    
+    private void extract(ProgressListener progress) {
+        boolean success = false;
         
         try {
-            copyAssetFolder("gamedata", destPath);
+            if (jobs.isEmpty()) {
+                Log.i(TAG, "Assets up to date");
+                success = true;
+                return;
+            }
             
-            // Create marker
-            marker.createNewFile();
+            long total = 0;
+            for (AssetExtractor.Job job : jobs) {
+                total += Math.max(job.size, 0);
+            }
+            
+            long bytesTotal = total;
+            AtomicLong bytesDone = new AtomicLong();
+            
+            Log.i(TAG, "Copying " + jobs.size() + " files (" + (total >> 20) + " MB) to " + destPath);
+            
+            new AssetExtractor(context.getAssets()).extractAll(jobs, new AssetExtractor.Listener() {
+                @Override
+                public void onJobDone(AssetExtractor.Job job) {
+                    recordInstalled(job);
+                    setPending(relativePath(job), false);
+                }
+                
+                @Override
+                public void onBytes(long count) {
+                    long done = bytesDone.addAndGet(count);
+                    if (progress != null) {
+                        progress.onProgress(done, bytesTotal);
+                    }
+                }
+            });
+            
+            success = true;
             Log.i(TAG, "Assets copied successfully");
         } catch (IOException e) {
             Log.e(TAG, "Failed to copy assets: " + e.getMessage());
+        } finally {
+            // Don't leave the game waiting on files that will never arrive
+            for (AssetExtractor.Job job : jobs) {
+                setPending(relativePath(job), false);
+            }
+            
+            finishInstall(success);
+            
+            if (progress != null) {
+                progress.onFinished(success);
+            }
         }
     }
     
     /**
-     * Copy entire folder from assets.
+     * Manifest generated at build time, or null for builds without one.
      */
-    private void copyAssetFolder(String srcFolder, String destFolder) throws IOException {
-        AssetManager assetManager = context.getAssets();
-        String[] files = assetManager.list(srcFolder);
+    private AssetManifest loadPackagedManifest() {
+        try (InputStream in = context.getAssets().open(AssetManifest.ASSET_NAME)) {
+            return AssetManifest.read(in);
+        } catch (IOException e) {
+            Log.w(TAG, "No asset manifest in APK, using marker file");
+            return null;
+        }
+    }
+    
+    /**
+     * Queue only the files whose size or hash differ from what was last
+     * installed, or whose copy on disk is truncated.
+     */
+    private void planSync(AssetManifest packaged) {
+        packagedManifest = packaged;
+        installedFile = new File(destPath, INSTALLED_MANIFEST);
+        installed = AssetManifest.readOrEmpty(installedFile);
+        
+        // Installs from before the manifest existed: trust files of the right size once
+        File marker = new File(destPath, LEGACY_MARKER);
+        if (installed.isEmpty() && marker.exists()) {
+            for (AssetManifest.Entry e : packaged.entries()) {
+                if (new File(destPath, e.path).length() == e.size) {
+                    installed.put(e);
+                }
+            }
+        }
+        
+        for (AssetManifest.Entry e : packaged.entries()) {
+            String srcPath = "gamedata/" + e.path;
+            File destFile = new File(destPath, e.path);
+            
+            if (mappedAssets.contains(srcPath)) {
+                installed.remove(e.path);
+                continue;
+            }
+            
+            if (e.sameContent(installed.get(e.path)) && destFile.length() == e.size) {
+                continue;
+            }
+            
+            // Not valid again until it has been copied in full
+            installed.remove(e.path);
+            jobs.add(new AssetExtractor.Job(srcPath, destFile, e.size, e.hash, loadPriority(e.path)));
+        }
+        
+        // Files dropped from the game since the last install
+        for (AssetManifest.Entry old : new ArrayList<>(installed.entries())) {
+            if (packaged.get(old.path) == null) {
+                new File(destPath, old.path).delete();
+                installed.remove(old.path);
+            }
+        }
+        
+        // Persist the invalidations first, a crash mid-copy must not resurrect them
+        saveInstalled(installed, installedFile);
+    }
+    
+    /**
+     * No manifest: copy whatever is missing, once, guarded by a marker file.
+     */
+    private void planLegacy() {
+        packagedManifest = null;
+        installed = null;
+        
+        // Check if already copied (marker file)
+        if (new File(destPath, LEGACY_MARKER).exists()) {
+            return;
+        }
+        
+        try {
+            collectAssetFolder("gamedata", destPath, jobs);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to list assets: " + e.getMessage());
+        }
+    }
+    
+    private void recordInstalled(AssetExtractor.Job job) {
+        if (installed == null) {
+            return;
+        }
+        
+        AssetManifest.Entry e = packagedManifest.get(relativePath(job));
+        synchronized (installed) {
+            installed.put(e);
+        }
+    }
+    
+    private void finishInstall(boolean success) {
+        File marker = new File(destPath, LEGACY_MARKER);
+        
+        if (installed != null) {
+            synchronized (installed) {
+                saveInstalled(installed, installedFile);
+            }
+            marker.delete();
+        } else if (success) {
+            try {
+                marker.createNewFile();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to create marker: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Files the engine opens first get copied first, in the order
+     * IdentifyVersion loads them.
+     */
+    private static int loadPriority(String relPath) {
+        String name = relPath.substring(relPath.lastIndexOf('/') + 1);
+        for (int i = 0; i < LOAD_ORDER.length; i++) {
+            if (LOAD_ORDER[i].equals(name)) {
+                return i;
+            }
+        }
+        return LOAD_ORDER.length;
+    }
+    
+    private static String relativePath(AssetExtractor.Job job) {
+        return job.srcPath.substring("gamedata/".length());
+    }
+    
+    private static void setPending(String relPath, boolean pending) {
+        try {
+            nativeSetAssetPending(relPath, pending);
+        } catch (UnsatisfiedLinkError e) {
+            // No native side to wait, nothing to tell
+        }
+    }
+    
+    private void saveInstalled(AssetManifest installed, File file) {
+        try {
+            installed.write(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save asset manifest: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Register every uncompressed pk3 under srcFolder with the native side.
+     */
+    private void mapAssetFolder(String srcFolder, String relFolder) {
+        String[] files;
+        try {
+            files = listAssets(srcFolder);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to list " + srcFolder + ": " + e.getMessage());
+            return;
+        }
+        
+        if (files == null) {
+            return;
+        }
+        
+        for (String filename : files) {
+            if (!useApkAssets) {
+                // Native side went away, copy the rest
+                return;
+            }
+            
+            String srcPath = srcFolder + "/" + filename;
+            String relPath = relFolder.isEmpty() ? filename : relFolder + "/" + filename;
+            
+            if (filename.endsWith(".pk3")) {
+                mapAssetFile(srcPath, relPath);
+            } else if (isAssetFolder(srcPath)) {
+                mapAssetFolder(srcPath, relPath);
+            }
+        }
+    }
+    
+    /**
+     * Hand a single pk3's (fd, offset, length) range in the APK to native code.
+     */
+    private void mapAssetFile(String srcPath, String relPath) {
+        int fd;
+        long offset, length;
+        
+        try (AssetFileDescriptor afd = context.getAssets().openFd(srcPath)) {
+            // Native code keeps its own descriptor for the life of the process
+            fd = ParcelFileDescriptor.dup(afd.getFileDescriptor()).detachFd();
+            offset = afd.getStartOffset();
+            length = afd.getLength();
+        } catch (IOException e) {
+            // Compressed in the APK, gets copied instead
+            Log.w(TAG, "Can't map " + srcPath + ", will copy: " + e.getMessage());
+            return;
+        }
+        
+        try {
+            nativeRegisterAsset(relPath, fd, offset, length);
+        } catch (UnsatisfiedLinkError e) {
+            Log.e(TAG, "Native library not loaded, falling back to copying");
+            useApkAssets = false;
+            // Nobody took ownership of the dup
+            try {
+                ParcelFileDescriptor.adoptFd(fd).close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+        
+        mappedAssets.add(srcPath);
+        
+        // A copy left over from before is now just wasted space
+        File stale = new File(destPath, relPath);
+        if (stale.exists() && stale.delete()) {
+            Log.i(TAG, "Removed extracted copy of " + relPath);
+        }
+    }
+    
+    /**
+     * Walk a folder in assets and queue every file that isn't on disk yet.
+     */
+    private void collectAssetFolder(String srcFolder, String destFolder, List<AssetExtractor.Job> jobs) throws IOException {
+        String[] files = listAssets(srcFolder);
         
         if (files == null || files.length == 0) {
             // It's a file, not a folder
-            copyAssetFile(srcFolder, destFolder);
+            collectAssetFile(srcFolder, destFolder, jobs);
             return;
         }
         
@@ -84,38 +425,71 @@ public class AssetCopier {
             String dstPath = destFolder + "/" + filename;
             
             // Check if it's a directory
-            String[] subFiles = assetManager.list(srcPath);
-            if (subFiles != null && subFiles.length > 0) {
-                copyAssetFolder(srcPath, dstPath);
+            if (isAssetFolder(srcPath)) {
+                collectAssetFolder(srcPath, dstPath, jobs);
             } else {
-                copyAssetFile(srcPath, dstPath);
+                collectAssetFile(srcPath, dstPath, jobs);
             }
         }
     }
     
     /**
-     * Copy single file from assets.
+     * Queue single file from assets.
      */
-    private void copyAssetFile(String srcPath, String destPath) throws IOException {
+    private void collectAssetFile(String srcPath, String destPath, List<AssetExtractor.Job> jobs) {
         File destFile = new File(destPath);
         
-        // Skip if already exists
-        if (destFile.exists()) {
+        // Skip if already exists or read in place from the APK
+        if (destFile.exists() || mappedAssets.contains(srcPath)) {
             return;
         }
         
-        Log.d(TAG, "Copying: " + srcPath);
+        jobs.add(new AssetExtractor.Job(srcPath, destFile, assetSize(srcPath), null, loadPriority(srcPath)));
+    }
+    
+    /**
+     * Children of an asset folder, from the index when there is one.
+     */
+    private String[] listAssets(String srcPath) throws IOException {
+        if (index != null && isGamedata(srcPath)) {
+            return index.children(gamedataPath(srcPath)).toArray(new String[0]);
+        }
+        return context.getAssets().list(srcPath);
+    }
+    
+    private boolean isAssetFolder(String srcPath) {
+        if (index != null && isGamedata(srcPath)) {
+            return index.isDirectory(gamedataPath(srcPath));
+        }
         
-        AssetManager assetManager = context.getAssets();
+        try {
+            String[] subFiles = context.getAssets().list(srcPath);
+            return subFiles != null && subFiles.length > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private static boolean isGamedata(String srcPath) {
+        return srcPath.equals("gamedata") || srcPath.startsWith("gamedata/");
+    }
+    
+    private static String gamedataPath(String srcPath) {
+        return srcPath.length() > "gamedata/".length() ? srcPath.substring("gamedata/".length()) : "";
+    }
+    
+    /**
+     * Size of an uncompressed asset, or -1 if it is compressed in the APK.
+     */
+    private long assetSize(String srcPath) {
+        if (index != null && isGamedata(srcPath)) {
+            return index.size(gamedataPath(srcPath));
+        }
         
-        try (InputStream in = assetManager.open(srcPath);
-             OutputStream out = new FileOutputStream(destFile)) {
-            
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
+        try (AssetFileDescriptor afd = context.getAssets().openFd(srcPath)) {
+            return afd.getLength();
+        } catch (IOException e) {
+            return -1;
         }
     }
     
@@ -123,6 +497,17 @@ public class AssetCopier {
      * Check if specific game file exists.
      */
     public boolean hasGameFile(String filename) {
+        if (mappedAssets.contains("gamedata/" + filename)) {
+            return true;
+        }
+        
+        // Only files copied in full are recorded as installed
+        if (installed != null) {
+            synchronized (installed) {
+                return installed.get(filename) != null;
+            }
+        }
+        
         File file = new File(destPath, filename);
         return file.exists();
     }
@@ -131,11 +516,32 @@ public class AssetCopier {
      * Get list of .pk3 files in game directory.
      */
     public String[] getGameFiles() {
+        if (index != null) {
+            List<String> names = new ArrayList<>();
+            for (String name : index.children("")) {
+                if (name.endsWith(".pk3") && hasGameFile(name)) {
+                    names.add(name);
+                }
+            }
+            return names.toArray(new String[0]);
+        }
+        
+        Set<String> names = new HashSet<>();
+        for (String srcPath : mappedAssets) {
+            String name = srcPath.substring("gamedata/".length());
+            if (name.indexOf('/') < 0) {
+                names.add(name);
+            }
+        }
+        
         File dir = new File(destPath);
-        if (!dir.exists()) {
-            return new String[0];
+        String[] onDisk = dir.exists() ? dir.list((d, name) -> name.endsWith(".pk3")) : null;
+        if (onDisk != null) {
+            for (String name : onDisk) {
+                names.add(name);
+            }
         }
         
-        return dir.list((d, name) -> name.endsWith(".pk3"));
+        return names.toArray(new String[0]);
     }
 }
@@ -0,0 +1,483 @@
+package org.kartkrew.ringracers;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Copies a batch of assets to disk on a small bounded thread pool.
+ *
+ * Uncompressed assets (pk3, wad, ...) are transferred straight from the
+ * APK's file descriptor with FileChannel.transferTo, so the kernel does the
+ * copy. Compressed assets fall back to streaming through a large per-thread
+ * direct buffer.
+ *
+ * Each file is written to a ".part" file and renamed into place only once
+ * its length checks out and it has been synced, so a killed process never
+ * leaves a truncated file under the real name. Large files are synced and
+ * checkpointed every SYNC_INTERVAL bytes and resume from there. A
+ * checkpoint records the size and hash of the asset it was written for,
+ * and files with a known hash are CRC-checked before the rename, so an
+ * app update can never splice two versions of an asset together.
+ */
+public class AssetExtractor {
+    private static final String TAG = "RingRacers-Assets";
+
+    // Storage bandwidth saturates quickly, more threads only add seeking
+    private static final int MAX_THREADS = 4;
+    private static final int STREAM_BUFFER_SIZE = 1 << 20;
+    private static final long TRANSFER_CHUNK = 8L << 20;
+    private static final long SYNC_INTERVAL = 64L << 20;
+    private static final int VERIFY_BUFFER_SIZE = 256 << 10;
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String CHECKPOINT_SUFFIX = ".part.offset";
+
+    private static final ThreadLocal<ByteBuffer> streamBuffer =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE));
+
+    /**
+     * A single asset to copy.
+     */
+    public static final class Job {
+        final String srcPath;
+        final File destFile;
+        final long size;
+        final String hash;
+        final int priority;
+
+        public Job(String srcPath, File destFile, long size) {
+            this(srcPath, destFile, size, null, 0);
+        }
+
+        /**
+         * Lower priority values are started first, ahead of larger files.
+         * hash is the manifest CRC32 ("%08x"), or null if unknown; only
+         * jobs with a known size and hash can resume.
+         */
+        public Job(String srcPath, File destFile, long size, String hash, int priority) {
+            this.srcPath = srcPath;
+            this.destFile = destFile;
+            this.size = size;
+            this.hash = hash;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Called on a worker thread as each job finishes successfully.
+     */
+    public interface Listener {
+        void onJobDone(Job job);
+
+        /**
+         * Called on a worker thread as each chunk is written.
+         */
+        default void onBytes(long count) {}
+    }
+
+    /**
+     * Where assets are read from. The APK through AssetManager in the app;
+     * a plain directory in host JVM tests and benchmarks.
+     */
+    interface Source {
+        /**
+         * An uncompressed asset as a byte range of an open file, or null
+         * if it can only be streamed.
+         */
+        Region openRegion(String path) throws IOException;
+
+        InputStream openStream(String path) throws IOException;
+    }
+
+    /**
+     * length bytes at offset in channel. Closing it closes the channel.
+     */
+    static final class Region implements Closeable {
+        final FileChannel channel;
+        final long offset;
+        final long length;
+        private final Closeable owner;
+
+        Region(FileChannel channel, long offset, long length, Closeable owner) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+            this.owner = owner;
+        }
+
+        @Override
+        public void close() throws IOException {
+            owner.close();
+        }
+    }
+
+    private final Source source;
+    private final int threads;
+
+    public AssetExtractor(AssetManager assetManager) {
+        this(assetManager, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AssetExtractor(AssetManager assetManager, int threads) {
+        this(apkSource(assetManager), threads);
+    }
+
+    AssetExtractor(Source source, int threads) {
+        this.source = source;
+        this.threads = Math.max(1, Math.min(threads, MAX_THREADS));
+    }
+
+    private static Source apkSource(AssetManager assetManager) {
+        return new Source() {
+            @Override
+            public Region openRegion(String path) throws IOException {
+                AssetFileDescriptor afd;
+                try {
+                    afd = assetManager.openFd(path);
+                } catch (FileNotFoundException e) {
+                    // Compressed in the APK, no descriptor available
+                    return null;
+                }
+
+                FileInputStream in = new FileInputStream(afd.getFileDescriptor());
+                return new Region(in.getChannel(), afd.getStartOffset(), afd.getLength(), () -> {
+                    try {
+                        in.close();
+                    } finally {
+                        afd.close();
+                    }
+                });
+            }
+
+            @Override
+            public InputStream openStream(String path) throws IOException {
+                return assetManager.open(path, AssetManager.ACCESS_STREAMING);
+            }
+        };
+    }
+
+    /**
+     * Copy all jobs, by priority then largest first, and block until done.
+     * The first failure is rethrown after the remaining jobs finish.
+     */
+    public void extractAll(List<Job> jobs) throws IOException {
+        extractAll(jobs, null);
+    }
+
+    /**
+     * Same as extractAll(jobs), reporting each finished job to listener.
+     */
+    public void extractAll(List<Job> jobs, Listener listener) throws IOException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        // Start the big pk3s first so they don't end up as the long tail
+        List<Job> ordered = new ArrayList<>(jobs);
+        ordered.sort((a, b) -> a.priority != b.priority
+            ? Integer.compare(a.priority, b.priority)
+            : Long.compare(b.size, a.size));
+
+        ExecutorService executor = newExecutor(Math.min(threads, ordered.size()));
+        List<Future<?>> futures = new ArrayList<>(ordered.size());
+        long start = System.nanoTime();
+        long total = 0;
+
+        try {
+            for (Job job : ordered) {
+                futures.add(executor.submit(() -> {
+                    copy(job, listener);
+                    if (listener != null) {
+                        listener.onJobDone(job);
+                    }
+                    return null;
+                }));
+                total += Math.max(job.size, 0);
+            }
+
+            IOException failure = null;
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof IOException
+                            ? (IOException) cause
+                            : new IOException(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Asset extraction interrupted", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Log.i(TAG, "Extracted " + ordered.size() + " files on " + threads + " threads: "
+            + throughput(total, System.nanoTime() - start));
+    }
+
+    /**
+     * Copy a single asset on the calling thread.
+     */
+    public void copy(Job job) throws IOException {
+        copy(job, null);
+    }
+
+    private void copy(Job job, Listener listener) throws IOException {
+        long start = System.nanoTime();
+
+        File parent = job.destFile.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        File part = new File(job.destFile.getPath() + PART_SUFFIX);
+        File checkpointFile = new File(job.destFile.getPath() + CHECKPOINT_SUFFIX);
+        long resumeAt = resumeOffset(job, part, checkpointFile);
+        long written;
+
+        try (RandomAccessFile raf = new RandomAccessFile(part, "rw")) {
+            FileChannel out = raf.getChannel();
+
+            // Anything past the last checkpoint may not have hit the disk
+            out.truncate(resumeAt);
+            out.position(resumeAt);
+
+            if (resumeAt > 0) {
+                Log.i(TAG, "Resuming " + job.srcPath + " at " + (resumeAt >> 20) + " MB");
+                if (listener != null) {
+                    listener.onBytes(resumeAt);
+                }
+            }
+
+            Checkpoint checkpoint = new Checkpoint(job, out, checkpointFile, listener);
+            written = resumeAt + copyInto(job.srcPath, resumeAt, out, checkpoint);
+
+            if (job.size >= 0 && written != job.size) {
+                // Doesn't match what was planned, never resume from it
+                checkpointFile.delete();
+                part.delete();
+                throw new IOException("Copied " + written + " of " + job.size + " bytes of " + job.srcPath);
+            }
+
+            // One fsync per file, before it becomes visible under its real name
+            out.force(true);
+        }
+
+        if (job.hash != null) {
+            String crc = crc32(part);
+            if (!crc.equals(job.hash)) {
+                checkpointFile.delete();
+                part.delete();
+                throw new IOException("CRC " + crc + " of " + job.srcPath + " does not match manifest " + job.hash);
+            }
+        }
+
+        if (!part.renameTo(job.destFile)) {
+            throw new IOException("Failed to rename " + part + " to " + job.destFile);
+        }
+        checkpointFile.delete();
+
+        if (RRLog.DEBUG) {
+            Log.d(TAG, "Copied " + job.srcPath + ": " + throughput(written - resumeAt, System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Offset a previous, interrupted copy of this same asset is known to
+     * have synced up to.
+     */
+    private static long resumeOffset(Job job, File part, File checkpointFile) {
+        if (!part.exists() || job.size < 0 || job.hash == null) {
+            checkpointFile.delete();
+            return 0;
+        }
+
+        long size = -1;
+        String hash = null;
+        long verified = 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(checkpointFile))) {
+            size = in.readLong();
+            hash = in.readUTF();
+            verified = in.readLong();
+        } catch (IOException e) {
+            // No or torn checkpoint, nothing is trusted
+        }
+
+        // Written for another version of the asset, its prefix is no use
+        if (size != job.size || !job.hash.equals(hash)) {
+            return 0;
+        }
+        if (verified < 0 || verified > part.length() || verified > job.size) {
+            return 0;
+        }
+        return verified;
+    }
+
+    private static String crc32(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[VERIFY_BUFFER_SIZE];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return String.format(Locale.US, "%08x", crc.getValue());
+    }
+
+    private long copyInto(String srcPath, long skip, FileChannel out, Checkpoint checkpoint) throws IOException {
+        Region region = source.openRegion(srcPath);
+        if (region != null) {
+            try (Region r = region) {
+                return transfer(r.channel, r.offset + skip, r.length - skip, out, checkpoint);
+            }
+        }
+
+        try (InputStream in = source.openStream(srcPath)) {
+            skipFully(in, skip);
+            try (ReadableByteChannel src = Channels.newChannel(in)) {
+                return stream(src, out, checkpoint);
+            }
+        }
+    }
+
+    /**
+     * Positional transfer, so the shared APK descriptor's file position is never touched.
+     */
+    private static long transfer(FileChannel in, long offset, long length, FileChannel out, Checkpoint checkpoint) throws IOException {
+        long done = 0;
+        while (done < length) {
+            long n = in.transferTo(offset + done, Math.min(TRANSFER_CHUNK, length - done), out);
+            if (n <= 0) {
+                throw new IOException("Short transfer at " + done + " of " + length);
+            }
+            done += n;
+            checkpoint.wrote(n);
+        }
+        return done;
+    }
+
+    private static long stream(ReadableByteChannel in, FileChannel out, Checkpoint checkpoint) throws IOException {
+        ByteBuffer buffer = streamBuffer.get();
+        long done = 0;
+
+        buffer.clear();
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            int n = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            done += n;
+            checkpoint.wrote(n);
+            buffer.clear();
+        }
+        return done;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long n = in.skip(count);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Asset shorter than resume offset");
+                }
+                n = 1;
+            }
+            count -= n;
+        }
+    }
+
+    /**
+     * Syncs the partial file every SYNC_INTERVAL bytes and records how far
+     * it got, so an interrupted copy can pick up from there.
+     */
+    private static final class Checkpoint {
+        private final Job job;
+        private final FileChannel out;
+        private final File file;
+        private final Listener listener;
+        private long sinceSync;
+
+        Checkpoint(Job job, FileChannel out, File file, Listener listener) {
+            this.job = job;
+            this.out = out;
+            this.file = file;
+            this.listener = listener;
+        }
+
+        void wrote(long n) throws IOException {
+            if (listener != null) {
+                listener.onBytes(n);
+            }
+
+            sinceSync += n;
+            if (sinceSync < SYNC_INTERVAL || job.hash == null || job.size < 0) {
+                return;
+            }
+            sinceSync = 0;
+
+            // Data first, then the offset that vouches for it
+            out.force(false);
+            try (DataOutputStream cp = new DataOutputStream(new FileOutputStream(file))) {
+                cp.writeLong(job.size);
+                cp.writeUTF(job.hash);
+                cp.writeLong(out.position());
+            }
+        }
+    }
+
+    private static ExecutorService newExecutor(int count) {
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            count, count, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                Thread t = new Thread(r, "AssetExtractor-" + index.incrementAndGet());
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static String throughput(long bytes, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        double mb = bytes / (1024.0 * 1024.0);
+        return String.format(Locale.US, "%.1f MB in %.2fs (%.1f MB/s)", mb, seconds, mb / seconds);
+    }
+}
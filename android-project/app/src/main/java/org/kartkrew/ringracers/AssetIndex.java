@@ -0,0 +1,70 @@
+package org.kartkrew.ringracers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory directory tree of assets/gamedata, built once from the
+ * packaged AssetManifest.
+ *
+ * Answers "is this a directory / what are its children / how big is it"
+ * from hash maps instead of AssetManager.list() and openFd(), each of
+ * which is a JNI round-trip into the APK's zip directory.
+ */
+public class AssetIndex {
+    private final Map<String, Long> files = new HashMap<>();
+    private final Map<String, List<String>> dirs = new HashMap<>();
+
+    public AssetIndex(AssetManifest manifest) {
+        dirs.put("", new ArrayList<>());
+
+        for (AssetManifest.Entry e : manifest.entries()) {
+            files.put(e.path, e.size);
+            link(e.path);
+        }
+    }
+
+    /**
+     * Add path to its parent's children, creating parent directories as needed.
+     */
+    private void link(String path) {
+        int slash = path.lastIndexOf('/');
+        String parent = slash < 0 ? "" : path.substring(0, slash);
+        String name = path.substring(slash + 1);
+
+        List<String> children = dirs.get(parent);
+        if (children == null) {
+            children = new ArrayList<>();
+            dirs.put(parent, children);
+            link(parent);
+        }
+        children.add(name);
+    }
+
+    public boolean isDirectory(String path) {
+        return dirs.containsKey(path);
+    }
+
+    public boolean isFile(String path) {
+        return files.containsKey(path);
+    }
+
+    /**
+     * Size of a file, or -1 if path isn't one.
+     */
+    public long size(String path) {
+        Long size = files.get(path);
+        return size != null ? size : -1;
+    }
+
+    /**
+     * Names of the entries directly under a directory; "" is the root.
+     */
+    public List<String> children(String path) {
+        List<String> children = dirs.get(path);
+        return children != null ? Collections.unmodifiableList(children) : Collections.emptyList();
+    }
+}
@@ -0,0 +1,138 @@
+package org.kartkrew.ringracers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size and hash of every file under assets/gamedata.
+ *
+ * The packaged copy is generated at build time by the generateAssetManifest
+ * Gradle task. A second copy next to the extracted files records what is
+ * actually on disk, so the two can be diffed on launch.
+ *
+ * Format is one "size hash path" line per file, with '#' comments.
+ */
+public class AssetManifest {
+    public static final String ASSET_NAME = "asset-manifest.txt";
+    private static final String HEADER = "# ringracers asset manifest v1";
+
+    /**
+     * One file, path relative to gamedata.
+     */
+    public static final class Entry {
+        public final String path;
+        public final long size;
+        public final String hash;
+
+        public Entry(String path, long size, String hash) {
+            this.path = path;
+            this.size = size;
+            this.hash = hash;
+        }
+
+        public boolean sameContent(Entry other) {
+            return other != null && size == other.size && hash.equals(other.hash);
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    public Entry remove(String path) {
+        return entries.remove(path);
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public static AssetManifest read(InputStream in) throws IOException {
+        AssetManifest manifest = new AssetManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+
+            // Path goes last so it may contain spaces
+            int a = line.indexOf(' ');
+            int b = a < 0 ? -1 : line.indexOf(' ', a + 1);
+            if (b < 0) {
+                throw new IOException("Malformed manifest line: " + line);
+            }
+
+            try {
+                long size = Long.parseLong(line.substring(0, a));
+                manifest.put(new Entry(line.substring(b + 1), size, line.substring(a + 1, b)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed manifest line: " + line, e);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Read a manifest from disk, or an empty one if it is missing or unreadable.
+     */
+    public static AssetManifest readOrEmpty(File file) {
+        if (!file.exists()) {
+            return new AssetManifest();
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        } catch (IOException e) {
+            return new AssetManifest();
+        }
+    }
+
+    /**
+     * Write through a temp file so a crash never leaves half a manifest.
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             Writer out = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.write('\n');
+            for (Entry e : entries.values()) {
+                out.write(Long.toString(e.size));
+                out.write(' ');
+                out.write(e.hash);
+                out.write(' ');
+                out.write(e.path);
+                out.write('\n');
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.kartkrew.ringracers;
+
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * Sizes the game surface to the render scale chosen by the native
+ * controller (cpp/android_dynres.h). The engine picks its video mode
+ * from the same scale, which is what saves the renderer's work; this
+ * only makes the final upscale to the panel cheaper.
+ *
+ * The scale is polled once per display frame, but the surface is only
+ * resized when it moved by more than MIN_CHANGE and at most once per
+ * MIN_RESIZE_INTERVAL_MS, since every resize reallocates the surface's
+ * buffers. SurfaceHolder.setFixedSize leaves the view where it is and
+ * has the hardware composer scale the smaller buffer up to it, so the
+ * upscale costs the GPU nothing.
+ */
+public class DynamicResolution implements Choreographer.FrameCallback {
+    private static final float MIN_CHANGE = 0.02f;
+    private static final long MIN_RESIZE_INTERVAL_MS = 1000;
+
+    private final SurfaceView view;
+
+    private float targetFps;
+    private float minScale = 0.5f;
+    private float maxScale = 1f;
+
+    private boolean running;
+    private boolean available = true;
+
+    private float applied = 1f;
+    private int appliedViewWidth, appliedViewHeight;
+    private long lastResizeMs;
+
+    public DynamicResolution(SurfaceView view) {
+        this.view = view;
+    }
+
+    /**
+     * Frame rate to hold, or 0 to follow the engine's frame rate cap.
+     */
+    public void setTargetFps(float fps) {
+        targetFps = fps;
+        if (running) configure();
+    }
+
+    /**
+     * Bounds of the render scale, as fractions of the view's size.
+     */
+    public void setScaleRange(float min, float max) {
+        minScale = min;
+        maxScale = max;
+        if (running) configure();
+    }
+
+    /**
+     * UI thread.
+     */
+    public void start() {
+        if (running || !available) return;
+        running = true;
+        configure();
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * UI thread. Leaves the surface at its current size.
+     */
+    public void stop() {
+        if (!running) return;
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    private void configure() {
+        try {
+            nativeConfigure(targetFps, minScale, maxScale);
+        } catch (UnsatisfiedLinkError e) {
+            // Native library missing; stay at full resolution
+            available = false;
+            stop();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) return;
+        Choreographer.getInstance().postFrameCallback(this);
+
+        int w = view.getWidth(), h = view.getHeight();
+        if (w == 0 || h == 0) return;
+
+        // A new view size (multi-window, rotation) needs a new fixed
+        // size straight away, whatever the scale is doing
+        boolean viewResized = w != appliedViewWidth || h != appliedViewHeight;
+        float scale = nativeGetScale();
+        if (!viewResized) {
+            if (Math.abs(scale - applied) < MIN_CHANGE) return;
+            if (frameTimeNanos / 1_000_000 - lastResizeMs < MIN_RESIZE_INTERVAL_MS) return;
+        }
+
+        apply(scale, w, h);
+        lastResizeMs = frameTimeNanos / 1_000_000;
+    }
+
+    private void apply(float scale, int w, int h) {
+        SurfaceHolder holder = view.getHolder();
+        if (scale >= 1f) {
+            holder.setSizeFromLayout();
+        } else {
+            // Even sizes keep the composer's scaling free of a half-pixel edge
+            holder.setFixedSize(Math.max(2, Math.round(w * scale) & ~1), Math.max(2, Math.round(h * scale) & ~1));
+        }
+        applied = scale;
+        appliedViewWidth = w;
+        appliedViewHeight = h;
+    }
+
+    private static native void nativeConfigure(float targetFps, float minScale, float maxScale);
+    private static native float nativeGetScale();
+}
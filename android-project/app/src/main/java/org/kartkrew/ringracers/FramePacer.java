@@ -0,0 +1,190 @@
+package org.kartkrew.ringracers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.Surface;
+
+import org.libsdl.app.SDLActivity;
+
+/**
+ * Ties engine frame timing to the display.
+ *
+ * Every Choreographer frame, reports the display's current vsync period,
+ * the highest refresh rate it supports at this resolution and any frame
+ * rate cap the system wants to the native side (cpp/android_frame.h). fpscap 0 matches the highest supported rate, not
+ * the current one, so a display that dropped to 60Hz never holds the
+ * engine there. The engine clamps to the cap and says what rate it is
+ * then running at; only while throttled is that passed to
+ * Surface.setFrameRate on Android 11+, so the display can switch down to
+ * match (say, 120Hz down to 60Hz). Otherwise we ask for no preference and
+ * leave the mode to the system.
+ *
+ * The cap is 60Hz at moderate thermal status and 30Hz in battery saver or
+ * at severe thermal status and above. Refresh rate and cap are re-read on
+ * display and power change callbacks, never per frame.
+ */
+public class FramePacer implements Choreographer.FrameCallback, DisplayManager.DisplayListener {
+    private static final int THROTTLE_MODERATE_HZ = 60;
+    private static final int THROTTLE_SEVERE_HZ = 30;
+
+    private final Context context;
+    private final Display display;
+    private final DisplayManager displays;
+    private final PowerManager power;
+
+    private boolean running;
+    private boolean available = true;
+
+    private long periodNanos;
+    private int maxRefreshHz;
+    private boolean powerSave;
+    private int thermalStatus;
+
+    private Surface rateSurface;
+    private int requestedRate = -1;
+
+    private final BroadcastReceiver powerSaveReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context c, Intent intent) {
+            powerSave = power.isPowerSaveMode();
+        }
+    };
+
+    private final PowerManager.OnThermalStatusChangedListener thermalListener = status -> thermalStatus = status;
+
+    public FramePacer(Context context, Display display) {
+        this.context = context;
+        this.display = display;
+        displays = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    }
+
+    /**
+     * Start reporting frames. UI thread.
+     */
+    public void start() {
+        if (running || !available) return;
+        running = true;
+
+        readRefreshRate();
+        if (displays != null) displays.registerDisplayListener(this, null);
+        if (power != null) {
+            powerSave = power.isPowerSaveMode();
+            context.registerReceiver(powerSaveReceiver, new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                thermalStatus = power.getCurrentThermalStatus();
+                power.addThermalStatusListener(thermalListener);
+            }
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stop reporting frames. UI thread.
+     */
+    public void stop() {
+        if (!running) return;
+        running = false;
+
+        Choreographer.getInstance().removeFrameCallback(this);
+        if (displays != null) displays.unregisterDisplayListener(this);
+        if (power != null) {
+            context.unregisterReceiver(powerSaveReceiver);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                power.removeThermalStatusListener(thermalListener);
+            }
+        }
+    }
+
+    /**
+     * Frame rate cap from battery saver and thermal status, 0 for none.
+     */
+    public int getThrottleRate() {
+        if (powerSave || thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) return THROTTLE_SEVERE_HZ;
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) return THROTTLE_MODERATE_HZ;
+        return 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) return;
+        Choreographer.getInstance().postFrameCallback(this);
+
+        int throttle = getThrottleRate();
+        int engineRate;
+        try {
+            engineRate = nativeVsync(periodNanos, maxRefreshHz, throttle);
+        } catch (UnsatisfiedLinkError e) {
+            // Native library missing; nothing to pace
+            available = false;
+            stop();
+            return;
+        }
+
+        // Asking for the rate we run at when nothing limits us would pin
+        // the display to whatever mode it happens to be in
+        requestFrameRate(throttle != 0 ? engineRate : 0);
+    }
+
+    private void requestFrameRate(int rate) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return;
+
+        // The surface is recreated across pauses and a new one has no
+        // preference, so ask again whenever it changes
+        Surface surface = SDLActivity.getNativeSurface();
+        if (surface == null || !surface.isValid()) return;
+        if (surface == rateSurface && rate == requestedRate) return;
+
+        try {
+            // 0 means no preference
+            surface.setFrameRate(rate, Surface.FRAME_RATE_COMPATIBILITY_DEFAULT);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            return;
+        }
+        rateSurface = surface;
+        requestedRate = rate;
+    }
+
+    private void readRefreshRate() {
+        float hz = display != null ? display.getRefreshRate() : 0f;
+        periodNanos = hz > 1f ? Math.round(1_000_000_000.0 / hz) : 0;
+
+        // Fastest mode at the current resolution; switching resolution
+        // for a higher rate is not something the system does for us
+        float max = hz;
+        if (display != null) {
+            Display.Mode current = display.getMode();
+            for (Display.Mode mode : display.getSupportedModes()) {
+                if (mode.getPhysicalWidth() == current.getPhysicalWidth()
+                    && mode.getPhysicalHeight() == current.getPhysicalHeight()) {
+                    max = Math.max(max, mode.getRefreshRate());
+                }
+            }
+        }
+        maxRefreshHz = Math.round(max);
+    }
+
+    @Override
+    public void onDisplayAdded(int displayId) {}
+
+    @Override
+    public void onDisplayRemoved(int displayId) {}
+
+    @Override
+    public void onDisplayChanged(int displayId) {
+        if (display != null && displayId == display.getDisplayId()) readRefreshRate();
+    }
+
+    /**
+     * Report one vsync; returns the frame rate the engine is running at,
+     * 0 for unlimited.
+     */
+    private static native int nativeVsync(long periodNanos, int maxRefreshHz, int throttleHz);
+}
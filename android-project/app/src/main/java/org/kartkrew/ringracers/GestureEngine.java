@@ -0,0 +1,361 @@
+package org.kartkrew.ringracers;
+
+/**
+ * Gesture layer between the touch overlay and the game.
+ *
+ * The overlay reports what is physically held (buttons, D-pad
+ * directions) and where button pointers move. On top of that the engine
+ * holds extra controls for:
+ *
+ *   swipe  - a pointer that went down on a button and slid sideways past
+ *            a distance holds a control (drift) until it lifts
+ *   hold   - a control held for long enough also holds another (charge)
+ *   chord  - a set of controls pressed together within a window holds
+ *            others for as long as they all stay down
+ *
+ * A control that belongs to a chord is held back for the chord window
+ * before it is reported, and is swallowed for as long as it stays down
+ * if the chord completes, so a chord never also presses its members. A
+ * member tapped and released inside the window is reported late, for
+ * one window, so the tap still lands. That delay is the price of a chord:
+ * every press of a member reaches the game a window late.
+ *
+ * What reaches the listener is the union of all of those, one Event per
+ * control that changes. Events come from a small free list and go back
+ * to it after dispatch, so a touch stream never allocates. Controls are
+ * TouchControl IDs, one bit each in a long. Times are uptime millis.
+ *
+ * No Android dependencies, so it can be exercised on a plain JVM.
+ */
+public class GestureEngine {
+    public static final int SOURCE_BUTTON = 0;
+    public static final int SOURCE_SWIPE = 1;
+    public static final int SOURCE_HOLD = 2;
+    public static final int SOURCE_CHORD = 3;
+
+    public static final int MAX_POINTERS = 10;
+    public static final int MAX_RULES = 8;
+
+    public static final long DEFAULT_CHORD_WINDOW_MS = 80;
+
+    /**
+     * One control changing state. Only valid for the duration of
+     * Listener.onGestureControl; don't keep a reference.
+     */
+    public static final class Event {
+        public int control;
+        public boolean pressed;
+        public int source;
+        public long time;
+
+        private Event next;
+    }
+
+    public interface Listener {
+        void onGestureControl(Event event);
+    }
+
+    private final Listener listener;
+    private Event pool;
+
+    // Everything held directly, and when each control went down
+    private long physical;
+    private final long[] pressTime = new long[64];
+
+    // What the listener has been told, and why each bit went down
+    private long output;
+    private final int[] outputSource = new int[64];
+
+    // Pointers that went down on a button
+    private final int[] pointerIds = new int[MAX_POINTERS];
+    private final float[] pointerDownX = new float[MAX_POINTERS];
+    private int swiped; // Bit per pointer slot
+
+    private float swipeDistance = Float.MAX_VALUE;
+    private int swipeControl = -1;
+
+    private int holdCount;
+    private final int[] holdControl = new int[MAX_RULES];
+    private final long[] holdMs = new long[MAX_RULES];
+    private final int[] holdOutput = new int[MAX_RULES];
+    private int holdActive; // Bit per rule
+
+    private int chordCount;
+    private final long[] chordMask = new long[MAX_RULES];
+    private final long[] chordOutput = new long[MAX_RULES];
+    private int chordActive; // Bit per rule
+    private long chordWindowMs = DEFAULT_CHORD_WINDOW_MS;
+    private long chordMembers;   // Union of every chord's controls
+    private long chordConsumed;  // Members swallowed by a chord until they lift
+    private long tapped;         // Members released while still held back
+    private final long[] tapUntil = new long[64];
+
+    public GestureEngine(Listener listener) {
+        this.listener = listener;
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            pointerIds[i] = TouchControlModel.NO_POINTER;
+        }
+    }
+
+    /**
+     * Slide a button pointer sideways by distance pixels to hold control.
+     */
+    public void setSwipe(float distance, int control) {
+        swipeDistance = distance;
+        swipeControl = control;
+    }
+
+    /**
+     * Holding control for ms also holds output.
+     */
+    public void addHold(int control, long ms, int output) {
+        if (holdCount == MAX_RULES) throw new IllegalStateException("Too many hold rules");
+        holdControl[holdCount] = control;
+        holdMs[holdCount] = ms;
+        holdOutput[holdCount] = output;
+        holdCount++;
+    }
+
+    /**
+     * Pressing every control in controls within the chord window holds
+     * outputs instead. An output may be one of the controls, to let it
+     * through once the chord has set up the others.
+     */
+    public void addChord(int[] controls, int... outputs) {
+        if (chordCount == MAX_RULES) throw new IllegalStateException("Too many chord rules");
+        long mask = 0;
+        for (int c : controls) mask |= 1L << c;
+        chordMask[chordCount] = mask;
+        chordMembers |= mask;
+        long out = 0;
+        for (int c : outputs) out |= 1L << c;
+        chordOutput[chordCount] = out;
+        chordCount++;
+    }
+
+    public void setChordWindow(long ms) {
+        chordWindowMs = ms;
+    }
+
+    public void clearRules() {
+        swipeDistance = Float.MAX_VALUE;
+        swipeControl = -1;
+        holdCount = chordCount = 0;
+        holdActive = chordActive = 0;
+        chordMembers = chordConsumed = tapped = 0;
+    }
+
+    /**
+     * A control went down or up directly.
+     */
+    public void setControl(int control, boolean pressed, long time) {
+        long bit = 1L << control;
+        if (((physical & bit) != 0) == pressed) return;
+
+        if (pressed) {
+            physical |= bit;
+            pressTime[control] = time;
+            tapped &= ~bit;
+        } else {
+            if (isHeldBack(control, time)) {
+                tapped |= bit;
+                tapUntil[control] = time + chordWindowMs;
+            }
+            physical &= ~bit;
+        }
+        update(time);
+    }
+
+    /**
+     * Pointer pid went down on a button at x, and may turn into a swipe.
+     */
+    public void pointerDown(int pid, float x) {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            if (pointerIds[i] == TouchControlModel.NO_POINTER) {
+                pointerIds[i] = pid;
+                pointerDownX[i] = x;
+                swiped &= ~(1 << i);
+                return;
+            }
+        }
+    }
+
+    public void pointerMove(int pid, float x, long time) {
+        int i = pointerSlot(pid);
+        if (i < 0 || (swiped & (1 << i)) != 0) return;
+
+        if (Math.abs(x - pointerDownX[i]) >= swipeDistance) {
+            swiped |= 1 << i;
+            update(time);
+        }
+    }
+
+    public void pointerUp(int pid, long time) {
+        int i = pointerSlot(pid);
+        if (i < 0) return;
+
+        pointerIds[i] = TouchControlModel.NO_POINTER;
+        if ((swiped & (1 << i)) != 0) {
+            swiped &= ~(1 << i);
+            update(time);
+        }
+    }
+
+    /**
+     * Release everything, telling the listener.
+     */
+    public void reset(long time) {
+        physical = 0;
+        swiped = 0;
+        holdActive = chordActive = 0;
+        chordConsumed = tapped = 0;
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            pointerIds[i] = TouchControlModel.NO_POINTER;
+        }
+        update(time);
+    }
+
+    /**
+     * When update() next needs calling for a hold to fire or a held back
+     * chord member to be reported, or -1 if nothing is pending.
+     */
+    public long nextDeadline() {
+        long next = -1;
+        for (int r = 0; r < holdCount; r++) {
+            if ((holdActive & (1 << r)) != 0 || (physical & (1L << holdControl[r])) == 0) continue;
+            long due = pressTime[holdControl[r]] + holdMs[r];
+            if (next < 0 || due < next) next = due;
+        }
+
+        long waiting = physical & chordMembers & ~chordConsumed & ~output;
+        while (waiting != 0) {
+            int control = Long.numberOfTrailingZeros(waiting);
+            waiting &= waiting - 1;
+            long due = pressTime[control] + chordWindowMs;
+            if (next < 0 || due < next) next = due;
+        }
+
+        long taps = tapped;
+        while (taps != 0) {
+            int control = Long.numberOfTrailingZeros(taps);
+            taps &= taps - 1;
+            if (next < 0 || tapUntil[control] < next) next = tapUntil[control];
+        }
+        return next;
+    }
+
+    /**
+     * Re-evaluate every rule at time and report what changed.
+     */
+    public void update(long time) {
+        long swipeOut = (swiped != 0 && swipeControl >= 0) ? 1L << swipeControl : 0;
+
+        long holdOut = 0;
+        for (int r = 0; r < holdCount; r++) {
+            if ((physical & (1L << holdControl[r])) == 0) {
+                holdActive &= ~(1 << r);
+            } else if (time - pressTime[holdControl[r]] >= holdMs[r]) {
+                holdActive |= 1 << r;
+            }
+            if ((holdActive & (1 << r)) != 0) holdOut |= 1L << holdOutput[r];
+        }
+
+        long chordOut = 0;
+        for (int r = 0; r < chordCount; r++) {
+            long mask = chordMask[r];
+            if ((physical & mask) != mask) {
+                chordActive &= ~(1 << r);
+            } else if ((chordActive & (1 << r)) == 0 && pressSpread(mask) <= chordWindowMs) {
+                chordActive |= 1 << r;
+            }
+            if ((chordActive & (1 << r)) != 0) {
+                chordOut |= chordOutput[r];
+                chordConsumed |= mask;
+            }
+        }
+        chordConsumed &= physical;
+
+        long taps = tapped;
+        while (taps != 0) {
+            int control = Long.numberOfTrailingZeros(taps);
+            taps &= taps - 1;
+            if (time >= tapUntil[control]) tapped &= ~(1L << control);
+        }
+
+        long heldBack = 0;
+        long members = physical & chordMembers & ~chordConsumed;
+        while (members != 0) {
+            int control = Long.numberOfTrailingZeros(members);
+            members &= members - 1;
+            if (isHeldBack(control, time)) heldBack |= 1L << control;
+        }
+
+        long buttons = (physical & ~chordConsumed & ~heldBack) | tapped;
+        long next = buttons | swipeOut | holdOut | chordOut;
+        long changed = next ^ output;
+        output = next;
+
+        while (changed != 0) {
+            int control = Long.numberOfTrailingZeros(changed);
+            long bit = 1L << control;
+            changed &= changed - 1;
+
+            boolean pressed = (next & bit) != 0;
+            if (pressed) {
+                if ((buttons & bit) != 0) outputSource[control] = SOURCE_BUTTON;
+                else if ((swipeOut & bit) != 0) outputSource[control] = SOURCE_SWIPE;
+                else if ((holdOut & bit) != 0) outputSource[control] = SOURCE_HOLD;
+                else outputSource[control] = SOURCE_CHORD;
+            }
+            dispatch(control, pressed, outputSource[control], time);
+        }
+    }
+
+    public boolean isHeld(int control) {
+        return (output & (1L << control)) != 0;
+    }
+
+    // A chord member still inside the window, not yet reported
+    private boolean isHeldBack(int control, long time) {
+        long bit = 1L << control;
+        return (physical & chordMembers & ~chordConsumed & ~output & bit) != 0
+            && time - pressTime[control] < chordWindowMs;
+    }
+
+    private int pointerSlot(int pid) {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            if (pointerIds[i] == pid) return i;
+        }
+        return -1;
+    }
+
+    // Time between the first and last press of the controls in mask
+    private long pressSpread(long mask) {
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        while (mask != 0) {
+            int control = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            first = Math.min(first, pressTime[control]);
+            last = Math.max(last, pressTime[control]);
+        }
+        return last - first;
+    }
+
+    private void dispatch(int control, boolean pressed, int source, long time) {
+        Event e = pool;
+        if (e != null) {
+            pool = e.next;
+        } else {
+            e = new Event();
+        }
+
+        e.control = control;
+        e.pressed = pressed;
+        e.source = source;
+        e.time = time;
+        if (listener != null) listener.onGestureControl(e);
+
+        e.next = pool;
+        pool = e;
+    }
+}
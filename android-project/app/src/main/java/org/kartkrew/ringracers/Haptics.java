@@ -0,0 +1,292 @@
+package org.kartkrew.ringracers;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Vibration for touch feedback and engine rumble, on a thread of its own.
+ *
+ * The UI thread (clicks) and the game thread (rumble, via
+ * cpp/android_haptics.h) only push a long onto a lock-free queue and
+ * unpark the haptics thread; neither ever calls into the vibrator
+ * service. The haptics thread then:
+ *
+ *   - merges clicks that land within MIN_INTERVAL_MS of each other,
+ *   - plays a click during rumble as one waveform, click then rumble,
+ *   - keeps rumble going as overlapping one-shot segments, renewed only
+ *     while the engine still asks for it,
+ *   - never calls the vibrator more often than every MIN_INTERVAL_MS.
+ */
+public class Haptics implements Runnable {
+    private static final long MIN_INTERVAL_MS = 30;
+    private static final long RUMBLE_SEGMENT_MS = 120;
+    private static final long RUMBLE_RENEW_MS = 100;
+
+    public static final long CLICK_MS = 15;
+    public static final int CLICK_AMPLITUDE = 160;
+
+    // Below this a motor without amplitude control would buzz at full
+    // strength for what the engine means as a faint rumble
+    private static final int MIN_FIXED_AMPLITUDE = 64;
+
+    private static final int KIND_CLICK = 1;
+    private static final int KIND_RUMBLE = 2;
+
+    private static volatile Haptics active;
+
+    private final Vibrator vibrator;
+    private final boolean amplitudeControl;
+    private final RequestQueue queue = new RequestQueue(64);
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private boolean started;
+
+    // Haptics thread only
+    private int clickAmplitude;
+    private long clickMs;
+    private int rumbleAmplitude;
+    private int playingRumble;
+    private long rumbleRenewAt;
+    private long lastCall = -MIN_INTERVAL_MS;
+
+    public Haptics(Vibrator vibrator) {
+        this.vibrator = vibrator != null && vibrator.hasVibrator() ? vibrator : null;
+        amplitudeControl = this.vibrator != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+            && this.vibrator.hasAmplitudeControl();
+    }
+
+    /**
+     * Start the haptics thread. Once only; the queue has one consumer.
+     */
+    public void start() {
+        if (started || vibrator == null) return;
+        started = true;
+        running = true;
+
+        Thread t = new Thread(this, "RingRacers-Haptics");
+        t.setPriority(Thread.NORM_PRIORITY + 1);
+        thread = t;
+        active = this;
+        t.start();
+
+        try {
+            nativeAttach();
+        } catch (UnsatisfiedLinkError e) {
+            // No engine rumble, touch feedback still works
+        }
+    }
+
+    /**
+     * Stop the thread and any vibration. Can't be restarted.
+     */
+    public void quit() {
+        if (!running) return;
+        running = false;
+        if (active == this) active = null;
+
+        Thread t = thread;
+        thread = null;
+        LockSupport.unpark(t);
+    }
+
+    /**
+     * Short tap for a touch press. Any thread.
+     */
+    public void click() {
+        post(KIND_CLICK, CLICK_AMPLITUDE, CLICK_MS);
+    }
+
+    /**
+     * Set the continuous rumble level, 0 .. 255. Any thread.
+     */
+    public void rumble(int amplitude) {
+        post(KIND_RUMBLE, Math.max(0, Math.min(amplitude, 255)), 0);
+    }
+
+    /**
+     * Stop rumble from outside the engine, e.g. when the app is paused.
+     * Native code only sends level changes, so it is told to forget the
+     * level it last sent, or the same level would never be sent again.
+     */
+    public void stopRumble() {
+        rumble(0);
+        try {
+            nativeForgetRumble();
+        } catch (UnsatisfiedLinkError e) {
+            // No engine rumble to restart
+        }
+    }
+
+    /**
+     * Engine rumble for the touch device, from the game thread. Strengths
+     * are 0 .. 65535 and a phone has one motor, so the stronger wins.
+     */
+    static void onNativeRumble(int low, int high) {
+        Haptics h = active;
+        if (h == null) return;
+
+        int strength = Math.max(low, high);
+        h.rumble(strength == 0 ? 0 : Math.max(1, (strength * 255 + 32767) / 65535));
+    }
+
+    private void post(int kind, int amplitude, long ms) {
+        if (!running) return;
+        // Full means the thread is behind anyway; dropping a tap is fine
+        if (queue.offer(((long) kind << 40) | ((long) (amplitude & 0xFF) << 32) | (ms & 0xFFFFFFFFL))) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            drain();
+
+            long wait = step(SystemClock.uptimeMillis());
+            if (!running) break;
+
+            if (wait < 0) {
+                LockSupport.park(this);
+            } else if (wait > 0) {
+                LockSupport.parkNanos(this, wait * 1_000_000L);
+            }
+        }
+
+        vibrator.cancel();
+    }
+
+    private void drain() {
+        long req;
+        while ((req = queue.poll()) != RequestQueue.EMPTY) {
+            int kind = (int) (req >>> 40);
+            int amplitude = (int) (req >>> 32) & 0xFF;
+            long ms = req & 0xFFFFFFFFL;
+
+            if (kind == KIND_CLICK) {
+                clickAmplitude = Math.max(clickAmplitude, amplitude);
+                clickMs = Math.max(clickMs, ms);
+            } else {
+                rumbleAmplitude = amplitudeControl || amplitude >= MIN_FIXED_AMPLITUDE ? amplitude : 0;
+            }
+        }
+    }
+
+    /**
+     * Do whatever is due and return ms until something next will be, or
+     * -1 to wait for a request.
+     */
+    private long step(long now) {
+        boolean rumbleDue = rumbleAmplitude != playingRumble || (playingRumble > 0 && now >= rumbleRenewAt);
+        if (clickMs == 0 && !rumbleDue) {
+            return playingRumble > 0 ? rumbleRenewAt - now : -1;
+        }
+
+        long allowedAt = lastCall + MIN_INTERVAL_MS;
+        if (now < allowedAt) return allowedAt - now;
+        lastCall = now;
+
+        if (clickMs > 0) {
+            playClick(clickAmplitude, clickMs, rumbleAmplitude);
+            rumbleRenewAt = now + clickMs + RUMBLE_RENEW_MS;
+            clickAmplitude = 0;
+            clickMs = 0;
+        } else if (rumbleAmplitude == 0) {
+            vibrator.cancel();
+        } else {
+            playRumble(rumbleAmplitude);
+            rumbleRenewAt = now + RUMBLE_RENEW_MS;
+        }
+        playingRumble = rumbleAmplitude;
+
+        return playingRumble > 0 ? rumbleRenewAt - now : -1;
+    }
+
+    private void playClick(int amplitude, long ms, int rumble) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            vibrator.vibrate(rumble > 0 ? ms + RUMBLE_SEGMENT_MS : ms);
+            return;
+        }
+
+        int amp = amplitudeControl ? amplitude : VibrationEffect.DEFAULT_AMPLITUDE;
+        if (rumble == 0) {
+            vibrator.vibrate(VibrationEffect.createOneShot(ms, amp));
+        } else {
+            vibrator.vibrate(VibrationEffect.createWaveform(
+                new long[] { ms, RUMBLE_SEGMENT_MS },
+                new int[] { amp, amplitudeControl ? rumble : VibrationEffect.DEFAULT_AMPLITUDE },
+                -1));
+        }
+    }
+
+    private void playRumble(int amplitude) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            vibrator.vibrate(RUMBLE_SEGMENT_MS);
+            return;
+        }
+        vibrator.vibrate(VibrationEffect.createOneShot(RUMBLE_SEGMENT_MS,
+            amplitudeControl ? amplitude : VibrationEffect.DEFAULT_AMPLITUDE));
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer queue of non-negative longs.
+     * Each slot carries a sequence number saying whose turn it is, so
+     * producers only contend on the tail CAS and never block.
+     */
+    static final class RequestQueue {
+        static final long EMPTY = -1;
+
+        private final int mask;
+        private final AtomicLongArray values;
+        private final AtomicLongArray sequence;
+        private final AtomicLong tail = new AtomicLong();
+        private long head; // Consumer only
+
+        RequestQueue(int capacity) {
+            if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+            mask = capacity - 1;
+            values = new AtomicLongArray(capacity);
+            sequence = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) sequence.set(i, i);
+        }
+
+        boolean offer(long value) {
+            long pos = tail.get();
+            for (;;) {
+                int slot = (int) pos & mask;
+                long diff = sequence.get(slot) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        values.lazySet(slot, value);
+                        sequence.set(slot, pos + 1);
+                        return true;
+                    }
+                    pos = tail.get();
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    pos = tail.get();
+                }
+            }
+        }
+
+        long poll() {
+            int slot = (int) head & mask;
+            if (sequence.get(slot) != head + 1) return EMPTY;
+
+            long value = values.get(slot);
+            sequence.set(slot, head + mask + 1);
+            head++;
+            return value;
+        }
+    }
+
+    private static native void nativeAttach();
+    private static native void nativeForgetRumble();
+}
@@ -0,0 +1,48 @@
+package org.kartkrew.ringracers;
+
+import android.os.Build;
+import android.view.MotionEvent;
+
+/**
+ * Touch-to-tic latency bookkeeping.
+ *
+ * The UI thread stamps each MotionEvent here; TouchInputRing copies the
+ * stamp into every record it writes, and native code turns the stamps
+ * into per-stage histograms (see cpp/android_input.h). Times are
+ * CLOCK_MONOTONIC nanoseconds, the clock behind both MotionEvent and
+ * System.nanoTime() on Android.
+ */
+public final class InputLatency {
+    private static long lastTouchNanos;
+
+    private InputLatency() {}
+
+    /**
+     * Remember when the event being handled was generated. UI thread only.
+     */
+    public static void markTouch(MotionEvent event) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            lastTouchNanos = event.getEventTimeNanos();
+        } else {
+            lastTouchNanos = event.getEventTime() * 1_000_000L;
+        }
+    }
+
+    public static long lastTouchNanos() {
+        return lastTouchNanos;
+    }
+
+    /**
+     * p50/p95/p99 of each stage as one line, optionally starting a new
+     * measurement window.
+     */
+    public static String dump(boolean reset) {
+        try {
+            return nativeDump(reset);
+        } catch (UnsatisfiedLinkError e) {
+            return "input latency unavailable";
+        }
+    }
+
+    private static native String nativeDump(boolean reset);
+}
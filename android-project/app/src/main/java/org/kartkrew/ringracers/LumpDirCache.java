@@ -0,0 +1,76 @@
+package org.kartkrew.ringracers;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Directory of cached pk3 lump directories, written and memory-mapped by
+ * lumpdir_cache.cpp.
+ *
+ * Native code keys each entry by pk3 path, size and mtime. This side owns
+ * the directory and empties it whenever the APK changes, so entries from an
+ * older build never pile up.
+ */
+public class LumpDirCache {
+    private static final String TAG = "RingRacers-LumpCache";
+    private static final String STAMP = ".stamp";
+    
+    /**
+     * Create or validate the cache directory and return its path.
+     */
+    public static String prepare(Context context) {
+        File dir = new File(context.getCacheDir(), "lumpdir");
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        
+        File apk = new File(context.getPackageCodePath());
+        String current = apk.length() + ":" + apk.lastModified();
+        File stamp = new File(dir, STAMP);
+        
+        if (!current.equals(readStamp(stamp))) {
+            File[] entries = dir.listFiles();
+            int removed = 0;
+            if (entries != null) {
+                for (File f : entries) {
+                    if (f.delete()) removed++;
+                }
+            }
+            if (removed > 0) {
+                Log.i(TAG, "App changed, dropped " + removed + " cached lump directories");
+            }
+            writeStamp(stamp, current);
+        }
+        
+        return dir.getAbsolutePath();
+    }
+    
+    private static String readStamp(File stamp) {
+        if (!stamp.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(stamp)) {
+            byte[] data = new byte[(int) Math.min(stamp.length(), 64)];
+            int n = in.read(data);
+            return n > 0 ? new String(data, 0, n, StandardCharsets.UTF_8) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    private static void writeStamp(File stamp, String value) {
+        try (OutputStream out = new FileOutputStream(stamp)) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cache stamp: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.kartkrew.ringracers;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Build-type log levels, the Java half of cpp/rr_log.h.
+ *
+ * The flags are compile-time constants from BuildConfig, so guarding a
+ * call with them lets javac drop it and its string building entirely:
+ *
+ *     if (RRLog.DEBUG) Log.d(TAG, "Copied " + path);
+ *     if (RRLog.TRACE && sampler.allow()) Log.d(TAG, "key " + key);
+ */
+public final class RRLog {
+    public static final boolean VERBOSE = BuildConfig.LOG_LEVEL <= Log.VERBOSE;
+    public static final boolean DEBUG = BuildConfig.LOG_LEVEL <= Log.DEBUG;
+    public static final boolean INFO = BuildConfig.LOG_LEVEL <= Log.INFO;
+
+    // Sampled tracing for hot paths, see Sampler
+    public static final boolean TRACE = BuildConfig.LOG_TRACE;
+
+    private static final int TRACE_PER_SEC = 4;
+
+    private RRLog() {}
+
+    /**
+     * Per-call-site rate limit, at most TRACE_PER_SEC lines a second.
+     * Not thread-safe; give each thread its own.
+     */
+    public static final class Sampler {
+        private long window;
+        private int count;
+
+        public boolean allow() {
+            long second = SystemClock.uptimeMillis() / 1000;
+            if (second != window) {
+                window = second;
+                count = 0;
+            }
+            return count++ < TRACE_PER_SEC;
+        }
+    }
+}
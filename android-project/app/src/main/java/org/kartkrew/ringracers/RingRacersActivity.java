@@ -1,31 +1,81 @@
 package org.kartkrew.ringracers;
 
 import android.content.pm.ActivityInfo;
+import android.graphics.Color;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Vibrator;
-import android.os.VibrationEffect;
+import android.util.Log;
+import android.view.Display;
+import android.view.Gravity;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
+import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import org.libsdl.app.SDLActivity;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Main activity for Ring Racers Android port.
  */
-public class RingRacersActivity extends SDLActivity implements TouchControlsView.TouchControlsListener {
+public class RingRacersActivity extends SDLActivity
+        implements TouchControlsView.TouchControlsListener, TiltSteering.Listener {
     
     private static final String TAG = "RingRacers";
     
+    // Read pk3s straight from the APK rather than extracting them
+    private static final boolean USE_APK_ASSETS = true;
+    
+    // Continuous steering instead of the 8-way D-pad
+    private static final boolean ANALOG_STICK = true;
+    
+    // Steer by tilting the device; the stick overrides it while held
+    private static final boolean TILT_STEERING = false;
+    
+    // Gestures, see GestureEngine
+    private static final float SWIPE_DRIFT_DP = 48f;
+    
+    // Keep holding brake to charge a spindash. Off by default: gc_spindash
+    // also holds accelerate and brake, so every long brake would become a
+    // spindash. Only for players who brake by tapping
+    private static final boolean BRAKE_HOLD_SPINDASH = false;
+    private static final long CHARGE_HOLD_MS = 350;
+    
+    // Item with brake throws backwards. Off by default: both are held back
+    // for the chord window, which adds that much latency to every brake
+    // and item press. Only for players who can't aim with the stick
+    private static final boolean ITEM_BRAKE_THROWS_BACK = false;
+    
+    // Render scale follows load, see DynamicResolution; a target of 0
+    // holds whatever rate the frame rate cap asks for
+    private static final boolean DYNAMIC_RESOLUTION = true;
+    private static final float DYNRES_TARGET_FPS = 0f;
+    private static final float DYNRES_MIN_SCALE = 0.5f;
+    private static final float DYNRES_MAX_SCALE = 1f;
+    
+    // Shared with the game thread for the life of the process
+    private static final TouchInputRing inputRing = new TouchInputRing(256);
+    private static final RRLog.Sampler fallbackTrace = new RRLog.Sampler();
+    
     private TouchControlsView touchControls;
-    private Vibrator vibrator;
+    private TiltSteering tilt;
+    private boolean stickHeld;
+    private float tiltX;
+    private Haptics haptics;
+    private FramePacer framePacer;
+    private DynamicResolution dynamicResolution;
     private AssetCopier assetCopier;
     
+    private LinearLayout progressOverlay;
+    private ProgressBar progressBar;
+    private TextView progressText;
+    private volatile int lastProgress = -1;
+    
     // Native methods
     private static native void nativeSetEnv(String name, String value);
     private static native String nativeGetGamePath();
@@ -35,18 +85,37 @@ public class RingRacersActivity extends SDLActivity implements TouchControlsView
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_SENSOR_LANDSCAPE);
         super.onCreate(savedInstanceState);
         
-        vibrator = (Vibrator) getSystemService(VIBRATOR_SERVICE);
+        haptics = new Haptics((Vibrator) getSystemService(VIBRATOR_SERVICE));
+        haptics.start();
         assetCopier = new AssetCopier(this);
         
         // Setup game path
         setupGamePath();
         
-        // Copy assets if needed (first run)
-        assetCopier.copyAssetsIfNeeded();
+        // Work out what to copy; the game waits on those files natively
+        assetCopier.setUseApkAssets(USE_APK_ASSETS);
+        assetCopier.prepare();
         
         // Add touch controls
+        inputRing.attach();
         setupTouchControls();
         
+        // Copy in the background while the engine boots
+        if (assetCopier.needsExtraction()) {
+            setupProgressOverlay();
+            assetCopier.extractInBackground(new AssetCopier.ProgressListener() {
+                @Override
+                public void onProgress(long bytesDone, long bytesTotal) {
+                    updateProgress(bytesDone, bytesTotal);
+                }
+                
+                @Override
+                public void onFinished(boolean success) {
+                    runOnUiThread(() -> hideProgressOverlay(success));
+                }
+            });
+        }
+        
         // Fullscreen
         enableFullscreen();
     }
@@ -64,6 +133,8 @@ public class RingRacersActivity extends SDLActivity implements TouchControlsView
         try {
             nativeSetEnv("SRB2HOME", gamePath);
             nativeSetEnv("RINGRACERSHOME", gamePath);
+            nativeSetEnv("RINGRACERSWADDIR", gamePath);
+            nativeSetEnv("RINGRACERS_LUMPCACHE", LumpDirCache.prepare(this));
         } catch (UnsatisfiedLinkError e) {
             // Native lib not loaded yet, that's fine
         }
@@ -72,6 +143,30 @@ public class RingRacersActivity extends SDLActivity implements TouchControlsView
     private void setupTouchControls() {
         touchControls = new TouchControlsView(this);
         touchControls.setTouchControlsListener(this);
+        touchControls.setAnalogStick(ANALOG_STICK);
+        touchControls.setLayout(TouchLayout.loadOrDefault(layoutFile()));
+        
+        GestureEngine gestures = touchControls.getGestures();
+        // Swipe sideways off any button to drift until that finger lifts
+        gestures.setSwipe(SWIPE_DRIFT_DP * getResources().getDisplayMetrics().density, TouchControl.DRIFT);
+        if (BRAKE_HOLD_SPINDASH) {
+            gestures.addHold(TouchControl.BRAKE, CHARGE_HOLD_MS, TouchControl.SPINDASH);
+        }
+        if (ITEM_BRAKE_THROWS_BACK) {
+            // Aim down and use the item, but no brake
+            gestures.addChord(new int[] { TouchControl.ITEM, TouchControl.BRAKE }, TouchControl.AIM_DOWN, TouchControl.ITEM);
+        }
+        
+        Display display = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? getDisplay() : getWindowManager().getDefaultDisplay();
+        framePacer = new FramePacer(this, display);
+        if (DYNAMIC_RESOLUTION) {
+            dynamicResolution = new DynamicResolution(mSurface);
+            dynamicResolution.setTargetFps(DYNRES_TARGET_FPS);
+            dynamicResolution.setScaleRange(DYNRES_MIN_SCALE, DYNRES_MAX_SCALE);
+        }
+        if (TILT_STEERING) {
+            tilt = new TiltSteering(this, display, this);
+        }
         
         FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
             FrameLayout.LayoutParams.MATCH_PARENT,
@@ -83,6 +178,65 @@ public class RingRacersActivity extends SDLActivity implements TouchControlsView
         }
     }
     
+    private void setupProgressOverlay() {
+        progressOverlay = new LinearLayout(this);
+        progressOverlay.setOrientation(LinearLayout.VERTICAL);
+        progressOverlay.setGravity(Gravity.CENTER);
+        progressOverlay.setBackgroundColor(Color.argb(160, 0, 0, 0));
+        progressOverlay.setPadding(32, 16, 32, 16);
+        
+        progressText = new TextView(this);
+        progressText.setTextColor(Color.WHITE);
+        progressText.setText("Extracting game data...");
+        progressOverlay.addView(progressText);
+        
+        progressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        progressBar.setMax(1000);
+        progressOverlay.addView(progressBar, new LinearLayout.LayoutParams(
+            LinearLayout.LayoutParams.MATCH_PARENT,
+            LinearLayout.LayoutParams.WRAP_CONTENT
+        ));
+        
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+            FrameLayout.LayoutParams.MATCH_PARENT,
+            FrameLayout.LayoutParams.WRAP_CONTENT,
+            Gravity.TOP
+        );
+        
+        if (mLayout != null) {
+            mLayout.addView(progressOverlay, params);
+        }
+    }
+    
+    // Called on the copying thread, only bothers the UI thread per 0.1%
+    private void updateProgress(long bytesDone, long bytesTotal) {
+        int permille = bytesTotal > 0 ? (int) Math.min(1000, bytesDone * 1000 / bytesTotal) : 0;
+        if (permille == lastProgress) return;
+        lastProgress = permille;
+        
+        runOnUiThread(() -> {
+            if (progressBar == null) return;
+            progressBar.setProgress(permille);
+            progressText.setText("Extracting game data... " + (permille / 10) + "%");
+        });
+    }
+    
+    private void hideProgressOverlay(boolean success) {
+        if (progressOverlay == null) return;
+        
+        if (!success) {
+            progressText.setText("Failed to extract game data");
+            return;
+        }
+        
+        if (mLayout != null) {
+            mLayout.removeView(progressOverlay);
+        }
+        progressOverlay = null;
+        progressBar = null;
+        progressText = null;
+    }
+    
     private void enableFullscreen() {
         getWindow().getDecorView().setSystemUiVisibility(
             View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY
@@ -95,6 +249,46 @@ public class RingRacersActivity extends SDLActivity implements TouchControlsView
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
     }
     
+    @Override
+    protected void onResume() {
+        super.onResume();
+        framePacer.start();
+        if (dynamicResolution != null) dynamicResolution.start();
+        if (tilt != null) tilt.start();
+    }
+    
+    @Override
+    protected void onPause() {
+        super.onPause();
+        framePacer.stop();
+        if (dynamicResolution != null) dynamicResolution.stop();
+        if (tilt != null) tilt.stop();
+        haptics.stopRumble();
+        saveTouchLayout();
+        if (RRLog.DEBUG) Log.d(TAG, "Input latency: " + InputLatency.dump(false));
+    }
+    
+    private File layoutFile() {
+        return new File(getFilesDir(), TouchLayout.FILE_NAME);
+    }
+    
+    private void saveTouchLayout() {
+        TouchLayout layout = touchControls != null ? touchControls.getLayout() : null;
+        if (layout == null || !layout.isModified()) return;
+        
+        try {
+            layout.save(layoutFile());
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save touch layout", e);
+        }
+    }
+    
+    @Override
+    protected void onDestroy() {
+        haptics.quit();
+        super.onDestroy();
+    }
+    
     @Override
     public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
@@ -103,40 +297,36 @@ public class RingRacersActivity extends SDLActivity implements TouchControlsView
     
     // Touch controls callbacks
     @Override
-    public void onDPadChanged(int direction) {
-        float x = 0, y = 0;
-        if ((direction & TouchControlsView.DPAD_LEFT) != 0) x = -1f;
-        if ((direction & TouchControlsView.DPAD_RIGHT) != 0) x = 1f;
-        if ((direction & TouchControlsView.DPAD_UP) != 0) y = -1f;
-        if ((direction & TouchControlsView.DPAD_DOWN) != 0) y = 1f;
-        
-        TouchControlsView.nativeSendAxis(0, x);
-        TouchControlsView.nativeSendAxis(1, y);
+    public void onStickMoved(float x, float y) {
+        stickHeld = x != 0f || y != 0f;
+        sendAxis(0, stickHeld || tilt == null ? x : tiltX);
+        sendAxis(1, y);
     }
     
     @Override
-    public void onButtonPressed(int buttonId, boolean pressed) {
-        int key = 0;
-        switch (buttonId) {
-            case TouchControlsView.BTN_ACCELERATE: key = 57; break; // Space
-            case TouchControlsView.BTN_BRAKE: key = 29; break;      // Ctrl
-            case TouchControlsView.BTN_DRIFT: key = 42; break;      // Shift
-            case TouchControlsView.BTN_ITEM: key = 28; break;       // Enter
-        }
-        
-        if (key != 0) {
-            TouchControlsView.nativeSendKey(key, pressed);
-            if (pressed) vibrate();
+    public void onTilt(float x) {
+        tiltX = x;
+        if (!stickHeld) sendAxis(0, x);
+    }
+    
+    @Override
+    public void onButtonPressed(int controlId, boolean pressed) {
+        sendControl(controlId, pressed);
+        if (pressed && !TouchControl.isDirection(controlId)) haptics.click();
+    }
+    
+    // Queue through the shared ring, direct JNI only if it is full or missing
+    private static void sendControl(int control, boolean pressed) {
+        if (!inputRing.offerControl(control, pressed)) {
+            if (RRLog.TRACE && fallbackTrace.allow()) Log.d(TAG, "Input ring unavailable, control " + control + " sent directly");
+            TouchControlsView.nativeSendControl(control, pressed);
         }
     }
     
-    private void vibrate() {
-        if (vibrator != null && vibrator.hasVibrator()) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                vibrator.vibrate(VibrationEffect.createOneShot(15, VibrationEffect.DEFAULT_AMPLITUDE));
-            } else {
-                vibrator.vibrate(15);
-            }
+    private static void sendAxis(int axis, float value) {
+        if (!inputRing.offerAxis(axis, value)) {
+            if (RRLog.TRACE && fallbackTrace.allow()) Log.d(TAG, "Input ring unavailable, axis " + axis + " sent directly");
+            TouchControlsView.nativeSendAxis(axis, value);
         }
     }
     
@@ -0,0 +1,143 @@
+package org.kartkrew.ringracers;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.Surface;
+
+/**
+ * Steering from tilting the device like a wheel.
+ *
+ * Samples TYPE_GRAVITY, which is fused with the gyroscope where one
+ * exists, or the raw accelerometer otherwise, at SENSOR_DELAY_GAME on a
+ * thread of its own. Samples are low-pass filtered there and only the
+ * latest value is kept; the UI thread picks it up once per display frame
+ * and reports it if it moved, so steering goes through the input ring at
+ * frame rate however fast the sensor runs.
+ */
+public class TiltSteering implements SensorEventListener, Choreographer.FrameCallback {
+    private static final float MAX_ANGLE_DEG = 35f;
+    private static final float DEADZONE_DEG = 3f;
+    private static final float SMOOTHING_MS = 40f;
+    private static final float MIN_CHANGE = 1f / 256f;
+
+    public interface Listener {
+        /**
+         * UI thread, at most once per frame. -1 full left .. 1 full right.
+         */
+        void onTilt(float x);
+    }
+
+    private final SensorManager sensors;
+    private final Sensor sensor;
+    private final Display display;
+    private final Listener listener;
+
+    private HandlerThread thread;
+    private boolean running;
+
+    // Sensor thread only
+    private float gx, gy;
+    private long lastTimestamp;
+
+    private volatile float latest;
+    private float sent;
+
+    public TiltSteering(Context context, Display display, Listener listener) {
+        sensors = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        Sensor s = sensors != null ? sensors.getDefaultSensor(Sensor.TYPE_GRAVITY) : null;
+        if (s == null && sensors != null) s = sensors.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        sensor = s;
+        this.display = display;
+        this.listener = listener;
+    }
+
+    public boolean isAvailable() {
+        return sensor != null;
+    }
+
+    /**
+     * Start sampling. UI thread.
+     */
+    public void start() {
+        if (running || sensor == null) return;
+        running = true;
+
+        thread = new HandlerThread("RingRacers-Tilt");
+        thread.start();
+        lastTimestamp = 0;
+        sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, new Handler(thread.getLooper()));
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stop sampling and centre the steering. UI thread.
+     */
+    public void stop() {
+        if (!running) return;
+        running = false;
+
+        sensors.unregisterListener(this);
+        thread.quitSafely();
+        thread = null;
+        Choreographer.getInstance().removeFrameCallback(this);
+
+        latest = 0f;
+        if (sent != 0f) {
+            sent = 0f;
+            listener.onTilt(0f);
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        float x = event.values[0], y = event.values[1];
+
+        // Same time-based filter as the touch stick, so the feel doesn't
+        // depend on the sensor's actual rate
+        if (lastTimestamp == 0) {
+            gx = x;
+            gy = y;
+        } else {
+            float dtMs = (event.timestamp - lastTimestamp) / 1_000_000f;
+            float a = 1f - (float) Math.exp(-Math.max(dtMs, 0f) / SMOOTHING_MS);
+            gx += (x - gx) * a;
+            gy += (y - gy) * a;
+        }
+        lastTimestamp = event.timestamp;
+
+        // The sensor axes are the natural (portrait) ones. Landscape
+        // either way round puts "up" along +x or -x, and turning the
+        // device clockwise moves it towards +y or -y respectively.
+        float sign = display != null && display.getRotation() == Surface.ROTATION_270 ? -1f : 1f;
+        float angle = (float) Math.toDegrees(Math.atan2(sign * gy, sign * gx));
+
+        float mag = Math.abs(angle);
+        if (mag <= DEADZONE_DEG) {
+            latest = 0f;
+        } else {
+            float v = Math.min((mag - DEADZONE_DEG) / (MAX_ANGLE_DEG - DEADZONE_DEG), 1f);
+            latest = Math.copySign(v, angle);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) return;
+        Choreographer.getInstance().postFrameCallback(this);
+
+        float x = latest;
+        if (Math.abs(x - sent) < MIN_CHANGE && !(x == 0f && sent != 0f)) return;
+        sent = x;
+        listener.onTilt(x);
+    }
+}
@@ -0,0 +1,30 @@
+package org.kartkrew.ringracers;
+
+/**
+ * Control IDs sent from the touch overlay to native code.
+ *
+ * Must match enum TouchControl in cpp/touch_input.h. What each control
+ * does in game is decided only by the binding table there; Java never
+ * deals in scancodes.
+ */
+public final class TouchControl {
+    public static final int ACCELERATE = 0;
+    public static final int BRAKE = 1;
+    public static final int DRIFT = 2;
+    public static final int ITEM = 3;
+    public static final int LOOKBACK = 4;
+    public static final int PAUSE = 5;
+    public static final int TURN_LEFT = 6;
+    public static final int TURN_RIGHT = 7;
+    public static final int AIM_UP = 8;
+    public static final int AIM_DOWN = 9;
+    public static final int SPINDASH = 10;
+
+    public static final int COUNT = 11;
+
+    private TouchControl() {}
+
+    public static boolean isDirection(int control) {
+        return control >= TURN_LEFT && control <= AIM_DOWN;
+    }
+}
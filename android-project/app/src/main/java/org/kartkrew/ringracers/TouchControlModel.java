@@ -0,0 +1,198 @@
+package org.kartkrew.ringracers;
+
+import java.util.Arrays;
+
+/**
+ * Button state for the touch overlay, kept in flat primitive arrays.
+ *
+ * Each control occupies a slot. Slot i owns bounds[4*i .. 4*i+3]
+ * (left, top, right, bottom), pointerIds[i] and bit i of the pressed
+ * mask, so hit tests and pointer lookups never box or allocate.
+ *
+ * buildGrid() buckets the slots into a coarse grid of cells, each
+ * holding a mask of the slots overlapping it, so a hit test only looks
+ * at the one or two controls under the touch instead of all of them.
+ *
+ * No Android dependencies, so it can be exercised on a plain JVM.
+ */
+public class TouchControlModel {
+    public static final int NO_SLOT = -1;
+    public static final int NO_POINTER = -1;
+
+    // A long mask caps the model at 64 controls, far more than fit on screen
+    public static final int MAX_CONTROLS = 64;
+
+    private final int[] ids;
+    private final String[] labels;
+    private final float[] bounds;
+    private final int[] pointerIds;
+    private long pressed;
+    private int count;
+
+    private long[] grid = new long[0];
+    private int gridCols, gridRows;
+    private float gridCell;
+    private boolean gridValid;
+
+    public TouchControlModel(int capacity) {
+        if (capacity < 0 || capacity > MAX_CONTROLS) {
+            throw new IllegalArgumentException("capacity must be 0.." + MAX_CONTROLS);
+        }
+        ids = new int[capacity];
+        labels = new String[capacity];
+        bounds = new float[capacity * 4];
+        pointerIds = new int[capacity];
+    }
+
+    /**
+     * Add a control and return its slot.
+     */
+    public int add(int id, String label) {
+        if (count == ids.length) {
+            throw new IllegalStateException("TouchControlModel is full");
+        }
+        int slot = count++;
+        ids[slot] = id;
+        labels[slot] = label;
+        pointerIds[slot] = NO_POINTER;
+        return slot;
+    }
+
+    public int size() { return count; }
+    public int id(int slot) { return ids[slot]; }
+    public String label(int slot) { return labels[slot]; }
+
+    public float left(int slot) { return bounds[slot * 4]; }
+    public float top(int slot) { return bounds[slot * 4 + 1]; }
+    public float right(int slot) { return bounds[slot * 4 + 2]; }
+    public float bottom(int slot) { return bounds[slot * 4 + 3]; }
+    public float centerX(int slot) { return (left(slot) + right(slot)) * 0.5f; }
+    public float centerY(int slot) { return (top(slot) + bottom(slot)) * 0.5f; }
+
+    public void setBounds(int slot, float left, float top, float right, float bottom) {
+        int o = slot * 4;
+        bounds[o] = left;
+        bounds[o + 1] = top;
+        bounds[o + 2] = right;
+        bounds[o + 3] = bottom;
+        gridValid = false;
+    }
+
+    /**
+     * Index the current bounds into cellSize cells over a width x height
+     * area. Call again after moving controls; until then hitTest scans.
+     * Only allocates when the grid needs more cells than ever before.
+     */
+    public void buildGrid(float width, float height, float cellSize) {
+        gridCell = cellSize;
+        gridCols = Math.max(1, (int) Math.ceil(width / cellSize));
+        gridRows = Math.max(1, (int) Math.ceil(height / cellSize));
+
+        int cells = gridCols * gridRows;
+        if (grid.length < cells) {
+            grid = new long[cells];
+        } else {
+            Arrays.fill(grid, 0, cells, 0L);
+        }
+
+        for (int slot = 0, o = 0; slot < count; slot++, o += 4) {
+            int c0 = gridColumn(bounds[o]), c1 = gridColumn(bounds[o + 2]);
+            int r0 = gridRow(bounds[o + 1]), r1 = gridRow(bounds[o + 3]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    grid[r * gridCols + c] |= 1L << slot;
+                }
+            }
+        }
+        gridValid = true;
+    }
+
+    private int gridColumn(float x) {
+        return Math.min(Math.max((int) (x / gridCell), 0), gridCols - 1);
+    }
+
+    private int gridRow(float y) {
+        return Math.min(Math.max((int) (y / gridCell), 0), gridRows - 1);
+    }
+
+    /**
+     * Slot of the first control containing (x, y), or NO_SLOT. Same edge
+     * rules as RectF.contains: left/top inclusive, right/bottom exclusive.
+     */
+    public int hitTest(float x, float y) {
+        if (gridValid) {
+            // Points off the grid are clamped onto its edge cells, which
+            // hold everything reaching past that edge
+            long candidates = grid[gridRow(y) * gridCols + gridColumn(x)];
+            while (candidates != 0) {
+                int slot = Long.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+                int o = slot * 4;
+                if (x >= bounds[o] && x < bounds[o + 2] && y >= bounds[o + 1] && y < bounds[o + 3]) {
+                    return slot;
+                }
+            }
+            return NO_SLOT;
+        }
+
+        for (int slot = 0, o = 0; slot < count; slot++, o += 4) {
+            if (x >= bounds[o] && x < bounds[o + 2] && y >= bounds[o + 1] && y < bounds[o + 3]) {
+                return slot;
+            }
+        }
+        return NO_SLOT;
+    }
+
+    public boolean isPressed(int slot) {
+        return (pressed & (1L << slot)) != 0;
+    }
+
+    public boolean anyPressed() {
+        return pressed != 0;
+    }
+
+    public int pointerId(int slot) {
+        return pointerIds[slot];
+    }
+
+    /**
+     * Mark slot as held by pointer pid.
+     */
+    public void press(int slot, int pid) {
+        pressed |= 1L << slot;
+        pointerIds[slot] = pid;
+    }
+
+    public void release(int slot) {
+        pressed &= ~(1L << slot);
+        pointerIds[slot] = NO_POINTER;
+    }
+
+    /**
+     * Release every slot held by pid and return a mask of the slots that
+     * were released, for the caller to report.
+     */
+    public long releasePointer(int pid) {
+        long released = 0;
+        for (int slot = 0; slot < count; slot++) {
+            if (pointerIds[slot] == pid && isPressed(slot)) {
+                released |= 1L << slot;
+                pointerIds[slot] = NO_POINTER;
+            }
+        }
+        pressed &= ~released;
+        return released;
+    }
+
+    /**
+     * Release everything and return a mask of what was pressed.
+     */
+    public long releaseAll() {
+        long released = pressed;
+        pressed = 0;
+        for (int slot = 0; slot < count; slot++) {
+            pointerIds[slot] = NO_POINTER;
+        }
+        return released;
+    }
+}
@@ -4,23 +4,34 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Touch controls overlay for Ring Racers.
+ *
+ * Presses go through a GestureEngine before reaching the listener, so
+ * swipes, holds and chords configured on getGestures() add to what is
+ * physically held.
+ *
+ * Geometry comes from a TouchLayout in dp, resolved to pixels on each
+ * size change. In edit mode, dragging a control moves it in the layout
+ * instead of pressing it.
  */
 public class TouchControlsView extends View {
     
-    public static final int BTN_ACCELERATE = 1;
-    public static final int BTN_BRAKE = 2;
-    public static final int BTN_DRIFT = 3;
-    public static final int BTN_ITEM = 4;
+    // Button IDs are the TouchControl IDs they send
+    public static final int BTN_ACCELERATE = TouchControl.ACCELERATE;
+    public static final int BTN_BRAKE = TouchControl.BRAKE;
+    public static final int BTN_DRIFT = TouchControl.DRIFT;
+    public static final int BTN_ITEM = TouchControl.ITEM;
+    public static final int BTN_LOOKBACK = TouchControl.LOOKBACK;
+    public static final int BTN_PAUSE = TouchControl.PAUSE;
     
     public static final int DPAD_NONE = 0;
     public static final int DPAD_LEFT = 1;
@@ -28,36 +39,114 @@ public class TouchControlsView extends View {
     public static final int DPAD_UP = 4;
     public static final int DPAD_DOWN = 8;
     
-    private Paint paintDPad, paintButton, paintPressed, paintText;
+    // Control sent for each DPAD_ bit, by bit index
+    private static final int[] DPAD_CONTROLS = {
+        TouchControl.TURN_LEFT, TouchControl.TURN_RIGHT, TouchControl.AIM_UP, TouchControl.AIM_DOWN,
+    };
+    
+    private static final int[] BUTTON_IDS = { BTN_ACCELERATE, BTN_BRAKE, BTN_DRIFT, BTN_ITEM, BTN_LOOKBACK, BTN_PAUSE };
+    private static final String[] BUTTON_LABELS = { "GAS", "BRAKE", "DRIFT", "ITEM", "LOOK", "II" };
+    private static final int[] BUTTON_COLORS = {
+        Color.argb(100, 50, 200, 50),   // BTN_ACCELERATE
+        Color.argb(100, 200, 50, 50),   // BTN_BRAKE
+        Color.argb(100, 50, 50, 200),   // BTN_DRIFT
+        Color.argb(100, 200, 200, 50),  // BTN_ITEM
+        Color.argb(100, 150, 150, 150), // BTN_LOOKBACK
+        Color.argb(100, 220, 220, 220), // BTN_PAUSE
+    };
+    
+    private Paint paintDPad, paintPressed, paintText, paintDir;
+    private final Paint[] paintButtons = new Paint[BUTTON_IDS.length];
+    
+    // Slots are in BUTTON_IDS order
+    private final TouchControlModel buttons = new TouchControlModel(BUTTON_IDS.length);
     
-    private float dpadCenterX, dpadCenterY, dpadRadius = 100f;
+    private TouchLayout layout = TouchLayout.createDefault();
+    private float density;
+    private final float[] resolved = new float[4];
+    
+    // Hit-test grid cell, about one finger tip
+    private static final float GRID_CELL_DP = 24f;
+    private static final float CORNER_DP = 5f;
+    
+    private float dpadCenterX, dpadCenterY, dpadRadius;
     private int currentDPadState = DPAD_NONE;
     private int dpadPointerId = -1;
     
-    private Map<Integer, RectF> buttonRects = new HashMap<>();
-    private Map<Integer, Boolean> buttonStates = new HashMap<>();
-    private Map<Integer, Integer> buttonPointerIds = new HashMap<>();
-    private Map<Integer, String> buttonLabels = new HashMap<>();
+    // Analog stick shaping, as fractions of dpadRadius
+    private static final float STICK_DEADZONE = 0.15f;
+    private static final float STICK_CURVE = 1.6f;
+    private static final float STICK_SMOOTHING_MS = 8f;
+    private static final float STICK_KNOB_DP = 18f;
+    private static final float DPAD_DEADZONE = 0.25f;
+    private static final float DPAD_TOUCH_SCALE = 1.2f;
+    
+    private boolean analogStick;
+    private Paint paintKnob;
+    private float knobRadius, cornerRadius;
+    private float stickRawX, stickRawY;   // Smoothed finger offset, unit circle
+    private float stickX, stickY;         // Shaped output, -1 .. 1
+    private float sentStickX, sentStickY;
+    private long stickLastTime;
+    private boolean stickFramePending;
+    private final Runnable stickFrame = this::flushStick;
+    
+    private final GestureEngine gestures = new GestureEngine(this::onGestureControl);
+    private final Runnable holdCheck = this::checkHolds;
+    private long touchTime; // Uptime of the event being handled
     
     public interface TouchControlsListener {
-        void onDPadChanged(int direction);
-        void onButtonPressed(int buttonId, boolean pressed);
+        /**
+         * A TouchControl was pressed or released. D-pad directions arrive
+         * here too, as TURN_LEFT .. AIM_DOWN, and so do controls held by
+         * gestures.
+         */
+        void onButtonPressed(int controlId, boolean pressed);
+        
+        default void onDPadChanged(int direction) {}
+        
+        /**
+         * Analog stick mode only, at most once per display frame.
+         */
+        default void onStickMoved(float x, float y) {}
     }
     
     private TouchControlsListener listener;
     private boolean isVisible = true;
     
-    public TouchControlsView(Context context) { super(context); init(); }
-    public TouchControlsView(Context context, AttributeSet attrs) { super(context, attrs); init(); }
+    private boolean editMode;
+    private int editId = -1;
+    private float editLastX, editLastY;
+    
+    // Idle artwork, recorded once per size on API 29+ hardware canvases
+    private RenderNode staticLayer;
+    private boolean staticLayerValid;
+    
+    // Union of control bounds changed by the current touch event
+    private float dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+    private boolean dirty;
     
-    private void init() {
+    public TouchControlsView(Context context) { super(context); init(getResources().getDisplayMetrics().density); }
+    public TouchControlsView(Context context, AttributeSet attrs) { super(context, attrs); init(getResources().getDisplayMetrics().density); }
+    
+    // For host tests, which have no Resources to read the density from
+    TouchControlsView(Context context, float density) { super(context); init(density); }
+    
+    private void init(float density) {
+        this.density = density;
+        knobRadius = STICK_KNOB_DP * density;
+        cornerRadius = CORNER_DP * density;
+        
         paintDPad = new Paint(Paint.ANTI_ALIAS_FLAG);
         paintDPad.setColor(Color.argb(80, 100, 100, 255));
         paintDPad.setStyle(Paint.Style.FILL);
         
-        paintButton = new Paint(Paint.ANTI_ALIAS_FLAG);
-        paintButton.setColor(Color.argb(80, 100, 100, 100));
-        paintButton.setStyle(Paint.Style.FILL);
+        for (int i = 0; i < BUTTON_IDS.length; i++) {
+            paintButtons[i] = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paintButtons[i].setColor(BUTTON_COLORS[i]);
+            paintButtons[i].setStyle(Paint.Style.FILL);
+            buttons.add(BUTTON_IDS[i], BUTTON_LABELS[i]);
+        }
         
         paintPressed = new Paint(Paint.ANTI_ALIAS_FLAG);
         paintPressed.setColor(Color.argb(180, 50, 200, 50));
@@ -65,88 +154,164 @@ public class TouchControlsView extends View {
         
         paintText = new Paint(Paint.ANTI_ALIAS_FLAG);
         paintText.setColor(Color.WHITE);
-        paintText.setTextSize(28f);
+        paintText.setTextSize(14f * density);
         paintText.setTextAlign(Paint.Align.CENTER);
         
-        buttonLabels.put(BTN_ACCELERATE, "GAS");
-        buttonLabels.put(BTN_BRAKE, "BRAKE");
-        buttonLabels.put(BTN_DRIFT, "DRIFT");
-        buttonLabels.put(BTN_ITEM, "ITEM");
+        paintDir = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paintDir.setColor(Color.WHITE);
+        paintDir.setTextSize(20f * density);
+        paintDir.setTextAlign(Paint.Align.CENTER);
         
-        for (int id : buttonLabels.keySet()) {
-            buttonStates.put(id, false);
-            buttonPointerIds.put(id, -1);
-        }
+        paintKnob = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paintKnob.setColor(Color.argb(180, 200, 200, 255));
+        paintKnob.setStyle(Paint.Style.FILL);
     }
     
     public void setTouchControlsListener(TouchControlsListener l) { listener = l; }
+    
+    /**
+     * Gesture rules for this overlay; none are set by default.
+     */
+    public GestureEngine getGestures() { return gestures; }
+    
+    /**
+     * Use the pad as a continuous analog stick instead of an 8-way D-pad.
+     */
+    public void setAnalogStick(boolean analog) {
+        if (analog == analogStick) return;
+        touchTime = SystemClock.uptimeMillis();
+        resetAll();
+        analogStick = analog;
+        invalidate();
+    }
     public void setControlsVisible(boolean v) { isVisible = v; invalidate(); }
     
+    public TouchLayout getLayout() { return layout; }
+    
+    public void setLayout(TouchLayout l) {
+        layout = l;
+        applyLayout(getWidth(), getHeight());
+    }
+    
+    /**
+     * While on, touches drag controls around the layout and send nothing.
+     */
+    public void setEditMode(boolean edit) {
+        if (edit == editMode) return;
+        touchTime = SystemClock.uptimeMillis();
+        resetAll();
+        editMode = edit;
+        editId = -1;
+    }
+    
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
+        applyLayout(w, h);
+    }
+    
+    /**
+     * Resolve the layout to pixels for the current size and rebuild the
+     * hit-test grid. Controls the layout leaves out get empty bounds, so
+     * they are neither drawn nor hit.
+     */
+    private void applyLayout(int w, int h) {
+        if (w == 0 || h == 0) return;
         
-        float margin = 50f;
-        dpadCenterX = margin + dpadRadius;
-        dpadCenterY = h - margin - dpadRadius;
+        for (int i = 0; i < buttons.size(); i++) {
+            if (layout.resolve(buttons.id(i), w, h, density, resolved, 0)) {
+                buttons.setBounds(i, resolved[0], resolved[1], resolved[2], resolved[3]);
+            } else {
+                buttons.setBounds(i, 0, 0, 0, 0);
+            }
+        }
+        buttons.buildGrid(w, h, GRID_CELL_DP * density);
         
-        float btnSize = 90f;
-        float rightX = w - margin - btnSize * 2;
-        float bottomY = h - margin;
+        if (layout.resolve(TouchLayout.DPAD, w, h, density, resolved, 0)) {
+            dpadCenterX = (resolved[0] + resolved[2]) * 0.5f;
+            dpadCenterY = (resolved[1] + resolved[3]) * 0.5f;
+            dpadRadius = (resolved[2] - resolved[0]) * 0.5f;
+        } else {
+            dpadRadius = 0f;
+        }
         
-        buttonRects.put(BTN_ACCELERATE, new RectF(rightX + btnSize, bottomY - btnSize * 2, rightX + btnSize * 2, bottomY - btnSize));
-        buttonRects.put(BTN_BRAKE, new RectF(rightX, bottomY - btnSize, rightX + btnSize, bottomY));
-        buttonRects.put(BTN_DRIFT, new RectF(rightX - btnSize, bottomY - btnSize * 2, rightX, bottomY - btnSize));
-        buttonRects.put(BTN_ITEM, new RectF(rightX, bottomY - btnSize * 3, rightX + btnSize, bottomY - btnSize * 2));
+        staticLayerValid = false;
+        invalidate();
     }
     
     @Override
     protected void onDraw(Canvas canvas) {
         if (!isVisible) return;
         
-        // D-Pad
-        canvas.drawCircle(dpadCenterX, dpadCenterY, dpadRadius, paintDPad);
-        
-        // Direction indicators
-        Paint dirPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        dirPaint.setColor(Color.WHITE);
-        dirPaint.setTextSize(40f);
-        dirPaint.setTextAlign(Paint.Align.CENTER);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated()) {
+            if (staticLayer == null) {
+                staticLayer = new RenderNode("TouchControlsStatic");
+            }
+            if (!staticLayerValid || !staticLayer.hasDisplayList()) {
+                staticLayer.setPosition(0, 0, getWidth(), getHeight());
+                RecordingCanvas rc = staticLayer.beginRecording(getWidth(), getHeight());
+                drawStatic(rc);
+                staticLayer.endRecording();
+                staticLayerValid = true;
+            }
+            canvas.drawRenderNode(staticLayer);
+        } else {
+            drawStatic(canvas);
+        }
         
-        int alpha = (currentDPadState & DPAD_LEFT) != 0 ? 255 : 100;
-        dirPaint.setAlpha(alpha);
-        canvas.drawText("◀", dpadCenterX - 50, dpadCenterY + 15, dirPaint);
+        drawActive(canvas);
+    }
+    
+    /**
+     * Everything as it looks with nothing held.
+     */
+    private void drawStatic(Canvas canvas) {
+        if (dpadRadius > 0f) {
+            canvas.drawCircle(dpadCenterX, dpadCenterY, dpadRadius, paintDPad);
+            
+            paintDir.setAlpha(100);
+            drawArrows(canvas, DPAD_LEFT | DPAD_RIGHT | DPAD_UP | DPAD_DOWN);
+        }
         
-        alpha = (currentDPadState & DPAD_RIGHT) != 0 ? 255 : 100;
-        dirPaint.setAlpha(alpha);
-        canvas.drawText("▶", dpadCenterX + 50, dpadCenterY + 15, dirPaint);
+        for (int i = 0; i < buttons.size(); i++) {
+            drawButton(canvas, i, paintButtons[i]);
+        }
+    }
+    
+    // Arrow glyphs for the DPAD_ bits in dirs, placed relative to the pad size
+    private void drawArrows(Canvas canvas, int dirs) {
+        float r = dpadRadius;
+        if ((dirs & DPAD_LEFT) != 0) canvas.drawText("◀", dpadCenterX - r * 0.5f, dpadCenterY + r * 0.15f, paintDir);
+        if ((dirs & DPAD_RIGHT) != 0) canvas.drawText("▶", dpadCenterX + r * 0.5f, dpadCenterY + r * 0.15f, paintDir);
+        if ((dirs & DPAD_UP) != 0) canvas.drawText("▲", dpadCenterX, dpadCenterY - r * 0.4f, paintDir);
+        if ((dirs & DPAD_DOWN) != 0) canvas.drawText("▼", dpadCenterX, dpadCenterY + r * 0.6f, paintDir);
+    }
+    
+    private void drawButton(Canvas canvas, int slot, Paint paint) {
+        if (buttons.right(slot) <= buttons.left(slot)) return;
+        canvas.drawRoundRect(buttons.left(slot), buttons.top(slot), buttons.right(slot), buttons.bottom(slot),
+            cornerRadius, cornerRadius, paint);
+        canvas.drawText(buttons.label(slot), buttons.centerX(slot), buttons.centerY(slot) + paintText.getTextSize() * 0.35f, paintText);
+    }
+    
+    /**
+     * Highlights for held controls, drawn over the static layer.
+     */
+    private void drawActive(Canvas canvas) {
+        if (analogStick && dpadPointerId != -1) {
+            canvas.drawCircle(dpadCenterX + stickRawX * dpadRadius, dpadCenterY + stickRawY * dpadRadius,
+                knobRadius, paintKnob);
+        }
         
-        alpha = (currentDPadState & DPAD_UP) != 0 ? 255 : 100;
-        dirPaint.setAlpha(alpha);
-        canvas.drawText("▲", dpadCenterX, dpadCenterY - 40, dirPaint);
+        if (currentDPadState != DPAD_NONE) {
+            paintDir.setAlpha(255);
+            drawArrows(canvas, currentDPadState);
+        }
         
-        alpha = (currentDPadState & DPAD_DOWN) != 0 ? 255 : 100;
-        dirPaint.setAlpha(alpha);
-        canvas.drawText("▼", dpadCenterX, dpadCenterY + 60, dirPaint);
+        if (!buttons.anyPressed()) return;
         
-        // Buttons
-        for (Map.Entry<Integer, RectF> entry : buttonRects.entrySet()) {
-            int id = entry.getKey();
-            RectF rect = entry.getValue();
-            boolean pressed = buttonStates.getOrDefault(id, false);
-            
-            Paint p = pressed ? paintPressed : paintButton;
-            if (!pressed) {
-                switch (id) {
-                    case BTN_ACCELERATE: p.setColor(Color.argb(100, 50, 200, 50)); break;
-                    case BTN_BRAKE: p.setColor(Color.argb(100, 200, 50, 50)); break;
-                    case BTN_DRIFT: p.setColor(Color.argb(100, 50, 50, 200)); break;
-                    case BTN_ITEM: p.setColor(Color.argb(100, 200, 200, 50)); break;
-                }
-            }
-            
-            canvas.drawRoundRect(rect, 10f, 10f, p);
-            canvas.drawText(buttonLabels.get(id), rect.centerX(), rect.centerY() + 10, paintText);
+        for (int i = 0; i < buttons.size(); i++) {
+            if (buttons.isPressed(i)) drawButton(canvas, i, paintPressed);
         }
     }
     
@@ -154,18 +319,36 @@ public class TouchControlsView extends View {
     public boolean onTouchEvent(MotionEvent event) {
         if (!isVisible) return false;
         
+        if (editMode) return onEditTouch(event);
+        
+        InputLatency.markTouch(event);
+        touchTime = event.getEventTime();
+        
         int action = event.getActionMasked();
         int idx = event.getActionIndex();
         int pid = event.getPointerId(idx);
         
+        dirty = false;
         switch (action) {
             case MotionEvent.ACTION_DOWN:
             case MotionEvent.ACTION_POINTER_DOWN:
-                handleDown(event.getX(idx), event.getY(idx), pid);
+                handleDown(event.getX(idx), event.getY(idx), pid, event.getEventTime());
                 break;
             case MotionEvent.ACTION_MOVE:
                 for (int i = 0; i < event.getPointerCount(); i++) {
-                    if (event.getPointerId(i) == dpadPointerId) {
+                    if (event.getPointerId(i) != dpadPointerId) {
+                        gestures.pointerMove(event.getPointerId(i), event.getX(i), touchTime);
+                        continue;
+                    }
+                    
+                    if (analogStick) {
+                        // Batched samples since the last frame, oldest first
+                        for (int h = 0; h < event.getHistorySize(); h++) {
+                            updateStick(event.getHistoricalX(i, h), event.getHistoricalY(i, h),
+                                event.getHistoricalEventTime(h));
+                        }
+                        updateStick(event.getX(i), event.getY(i), event.getEventTime());
+                    } else {
                         updateDPad(event.getX(i), event.getY(i));
                     }
                 }
@@ -178,52 +361,83 @@ public class TouchControlsView extends View {
                 resetAll();
                 break;
         }
-        invalidate();
+        
+        scheduleHoldCheck();
+        
+        // Most MOVE samples change nothing, so nothing needs redrawing
+        if (dirty) {
+            invalidate((int) Math.floor(dirtyLeft), (int) Math.floor(dirtyTop),
+                (int) Math.ceil(dirtyRight), (int) Math.ceil(dirtyBottom));
+        }
         return true;
     }
     
-    private void handleDown(float x, float y, int pid) {
+    private void markDirty(float left, float top, float right, float bottom) {
+        if (!dirty) {
+            dirtyLeft = left;
+            dirtyTop = top;
+            dirtyRight = right;
+            dirtyBottom = bottom;
+            dirty = true;
+        } else {
+            dirtyLeft = Math.min(dirtyLeft, left);
+            dirtyTop = Math.min(dirtyTop, top);
+            dirtyRight = Math.max(dirtyRight, right);
+            dirtyBottom = Math.max(dirtyBottom, bottom);
+        }
+    }
+    
+    private void markDPadDirty() {
+        float r = dpadRadius + knobRadius;
+        markDirty(dpadCenterX - r, dpadCenterY - r, dpadCenterX + r, dpadCenterY + r);
+    }
+    
+    private void markButtonDirty(int slot) {
+        markDirty(buttons.left(slot), buttons.top(slot), buttons.right(slot), buttons.bottom(slot));
+    }
+    
+    private boolean onDPad(float x, float y) {
         float dx = x - dpadCenterX, dy = y - dpadCenterY;
-        if (Math.sqrt(dx*dx + dy*dy) <= dpadRadius * 1.2f) {
+        float reach = dpadRadius * DPAD_TOUCH_SCALE;
+        return dx*dx + dy*dy <= reach * reach;
+    }
+    
+    void handleDown(float x, float y, int pid, long time) {
+        if (onDPad(x, y)) {
             dpadPointerId = pid;
-            updateDPad(x, y);
+            if (analogStick) {
+                stickLastTime = 0;
+                updateStick(x, y, time);
+            } else {
+                updateDPad(x, y);
+            }
             return;
         }
         
-        for (Map.Entry<Integer, RectF> e : buttonRects.entrySet()) {
-            if (e.getValue().contains(x, y)) {
-                int id = e.getKey();
-                buttonStates.put(id, true);
-                buttonPointerIds.put(id, pid);
-                if (listener != null) listener.onButtonPressed(id, true);
-                return;
-            }
+        int slot = buttons.hitTest(x, y);
+        if (slot != TouchControlModel.NO_SLOT) {
+            buttons.press(slot, pid);
+            markButtonDirty(slot);
+            gestures.pointerDown(pid, x);
+            gestures.setControl(buttons.id(slot), true, time);
         }
     }
     
-    private void handleUp(int pid) {
+    void handleUp(int pid) {
         if (pid == dpadPointerId) {
-            dpadPointerId = -1;
-            currentDPadState = DPAD_NONE;
-            if (listener != null) listener.onDPadChanged(DPAD_NONE);
+            releaseDPad();
         }
         
-        for (Map.Entry<Integer, Integer> e : buttonPointerIds.entrySet()) {
-            if (e.getValue() == pid) {
-                int id = e.getKey();
-                buttonStates.put(id, false);
-                buttonPointerIds.put(id, -1);
-                if (listener != null) listener.onButtonPressed(id, false);
-            }
-        }
+        gestures.pointerUp(pid, touchTime);
+        notifyReleased(buttons.releasePointer(pid));
     }
     
     private void updateDPad(float x, float y) {
         float dx = x - dpadCenterX, dy = y - dpadCenterY;
-        float dist = (float) Math.sqrt(dx*dx + dy*dy);
+        float dead = dpadRadius * DPAD_DEADZONE;
         
         int state = DPAD_NONE;
-        if (dist > 25f) {
+        if (dx*dx + dy*dy > dead * dead) {
             double angle = Math.toDegrees(Math.atan2(dy, dx));
             if (angle >= -60 && angle < 60) state |= DPAD_RIGHT;
             if (angle >= 120 || angle < -120) state |= DPAD_LEFT;
@@ -231,27 +445,164 @@ public class TouchControlsView extends View {
             if (angle >= -150 && angle < -30) state |= DPAD_UP;
         }
         
-        if (state != currentDPadState) {
-            currentDPadState = state;
-            if (listener != null) listener.onDPadChanged(state);
+        setDPadState(state);
+    }
+    
+    /**
+     * Report each direction that changed as a control press or release.
+     */
+    private void setDPadState(int state) {
+        int changed = state ^ currentDPadState;
+        if (changed == 0) return;
+        
+        currentDPadState = state;
+        markDPadDirty();
+        
+        while (changed != 0) {
+            int bit = Integer.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+            gestures.setControl(DPAD_CONTROLS[bit], (state & (1 << bit)) != 0, touchTime);
+        }
+        if (listener != null) listener.onDPadChanged(state);
+    }
+    
+    /**
+     * Feed one touch sample to the stick. Samples are smoothed with a
+     * time-based filter, so every historical sample counts and the result
+     * doesn't depend on the touch panel's sampling rate.
+     */
+    private void updateStick(float x, float y, long time) {
+        float nx = (x - dpadCenterX) / dpadRadius;
+        float ny = (y - dpadCenterY) / dpadRadius;
+        float len = (float) Math.sqrt(nx*nx + ny*ny);
+        if (len > 1f) {
+            nx /= len;
+            ny /= len;
+        }
+        
+        if (stickLastTime == 0) {
+            stickRawX = nx;
+            stickRawY = ny;
+        } else {
+            float dt = Math.max(time - stickLastTime, 0);
+            float a = 1f - (float) Math.exp(-dt / STICK_SMOOTHING_MS);
+            stickRawX += (nx - stickRawX) * a;
+            stickRawY += (ny - stickRawY) * a;
+        }
+        stickLastTime = time;
+        
+        // Radial deadzone, then a power curve for finer control near center
+        float mag = (float) Math.sqrt(stickRawX*stickRawX + stickRawY*stickRawY);
+        if (mag <= STICK_DEADZONE) {
+            stickX = stickY = 0f;
+        } else {
+            float shaped = (float) Math.pow(Math.min((mag - STICK_DEADZONE) / (1f - STICK_DEADZONE), 1f), STICK_CURVE);
+            stickX = stickRawX / mag * shaped;
+            stickY = stickRawY / mag * shaped;
+        }
+        
+        markDPadDirty();
+        
+        // Coalesce: only the latest value each frame goes to the game
+        if (!stickFramePending) {
+            stickFramePending = true;
+            postOnAnimation(stickFrame);
         }
     }
     
-    private void resetAll() {
+    private void flushStick() {
+        stickFramePending = false;
+        if (stickX == sentStickX && stickY == sentStickY) return;
+        
+        sentStickX = stickX;
+        sentStickY = stickY;
+        if (listener != null) listener.onStickMoved(stickX, stickY);
+    }
+    
+    private void releaseDPad() {
         dpadPointerId = -1;
-        currentDPadState = DPAD_NONE;
-        if (listener != null) listener.onDPadChanged(DPAD_NONE);
-        
-        for (int id : buttonStates.keySet()) {
-            if (buttonStates.get(id)) {
-                buttonStates.put(id, false);
-                buttonPointerIds.put(id, -1);
-                if (listener != null) listener.onButtonPressed(id, false);
+        
+        if (analogStick) {
+            markDPadDirty();
+            stickRawX = stickRawY = stickX = stickY = 0f;
+            stickLastTime = 0;
+            
+            // Letting go is sent right away rather than next frame
+            flushStick();
+            return;
+        }
+        
+        setDPadState(DPAD_NONE);
+    }
+    
+    private void resetAll() {
+        releaseDPad();
+        notifyReleased(buttons.releaseAll());
+        gestures.reset(touchTime);
+        removeCallbacks(holdCheck);
+    }
+    
+    private void notifyReleased(long slots) {
+        while (slots != 0) {
+            int slot = Long.numberOfTrailingZeros(slots);
+            slots &= slots - 1;
+            markButtonDirty(slot);
+            gestures.setControl(buttons.id(slot), false, touchTime);
+        }
+    }
+    
+    private void onGestureControl(GestureEngine.Event e) {
+        if (listener != null) listener.onButtonPressed(e.control, e.pressed);
+    }
+    
+    /**
+     * Holds and held back chord members fire with no touch event to
+     * trigger them, so wake up for the next one due.
+     */
+    private void scheduleHoldCheck() {
+        removeCallbacks(holdCheck);
+        long due = gestures.nextDeadline();
+        if (due >= 0) {
+            postDelayed(holdCheck, Math.max(due - SystemClock.uptimeMillis(), 0));
+        }
+    }
+    
+    private void checkHolds() {
+        touchTime = SystemClock.uptimeMillis();
+        gestures.update(touchTime);
+        scheduleHoldCheck();
+    }
+    
+    /**
+     * Edit mode: the first finger drags whichever control it lands on.
+     */
+    private boolean onEditTouch(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN: {
+                float x = event.getX(), y = event.getY();
+                int slot = buttons.hitTest(x, y);
+                editId = slot != TouchControlModel.NO_SLOT ? buttons.id(slot)
+                    : onDPad(x, y) ? TouchLayout.DPAD : -1;
+                editLastX = x;
+                editLastY = y;
+                break;
             }
+            case MotionEvent.ACTION_MOVE:
+                if (editId == -1) break;
+                layout.moveBy(editId, (event.getX() - editLastX) / density, (event.getY() - editLastY) / density);
+                editLastX = event.getX();
+                editLastY = event.getY();
+                applyLayout(getWidth(), getHeight());
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                editId = -1;
+                break;
         }
+        return true;
     }
     
     // Native methods
-    public static native void nativeSendKey(int key, boolean pressed);
+    public static native void nativeSendControl(int control, boolean pressed);
     public static native void nativeSendAxis(int axis, float value);
 }
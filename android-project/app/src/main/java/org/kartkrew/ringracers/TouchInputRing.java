@@ -0,0 +1,105 @@
+package org.kartkrew.ringracers;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Single-producer/single-consumer queue of input records in a direct
+ * ByteBuffer shared with native code (see cpp/android_input.h).
+ *
+ * The UI thread is the only producer; the game thread drains the ring
+ * once per I_GetEvent. Offering a record is a few buffer writes, with no
+ * JNI call and no SDL event queue lock.
+ *
+ * When the ring is full or not attached, offer* returns false and the
+ * caller should fall back to the direct JNI path.
+ */
+public final class TouchInputRing {
+    private static final String TAG = "RingRacers-Input";
+
+    // Must match cpp/android_input.h
+    private static final int HEAD_OFFSET = 0;
+    private static final int TAIL_OFFSET = 64;
+    private static final int RECORDS_OFFSET = 128;
+    private static final int RECORD_SIZE = 24;
+
+    public static final int TYPE_CONTROL = 1;
+    public static final int TYPE_AXIS = 2;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private boolean attached;
+
+    // Producer's own copy of head; only this thread ever writes it
+    private int head;
+
+    // Only touched to order the record writes before the head write
+    private static volatile int publishFence;
+
+    public TouchInputRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.buffer = ByteBuffer.allocateDirect(RECORDS_OFFSET + capacity * RECORD_SIZE)
+            .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Hand the buffer to native code. Call once the library is loaded.
+     * The ring is never detached, native code may be mid-drain at any time.
+     */
+    public boolean attach() {
+        if (attached) return true;
+        try {
+            nativeAttach(buffer, capacity);
+            attached = true;
+        } catch (UnsatisfiedLinkError e) {
+            Log.w(TAG, "Native input ring not available, using direct calls");
+        }
+        return attached;
+    }
+
+    /**
+     * Queue a TouchControl press or release.
+     */
+    public boolean offerControl(int control, boolean pressed) {
+        return offer(TYPE_CONTROL, control, pressed ? 1 : 0);
+    }
+
+    public boolean offerAxis(int axis, float value) {
+        return offer(TYPE_AXIS, axis, Float.floatToRawIntBits(value));
+    }
+
+    private boolean offer(int type, int code, int value) {
+        if (!attached) return false;
+
+        // A stale tail only makes the ring look fuller than it is
+        int tail = buffer.getInt(TAIL_OFFSET);
+        if (head - tail >= capacity) {
+            return false;
+        }
+
+        int off = RECORDS_OFFSET + (head & mask) * RECORD_SIZE;
+        buffer.put(off, (byte) type);
+        buffer.put(off + 1, (byte) code);
+        buffer.putShort(off + 2, (short) 0);
+        buffer.putInt(off + 4, value);
+        buffer.putLong(off + 8, InputLatency.lastTouchNanos());
+        buffer.putLong(off + 16, System.nanoTime());
+
+        // Volatile store then load: the record can't become visible after head
+        publishFence = head;
+        int unused = publishFence;
+
+        head++;
+        buffer.putInt(HEAD_OFFSET, head);
+        return true;
+    }
+
+    private static native void nativeAttach(ByteBuffer buffer, int capacity);
+}
@@ -0,0 +1,213 @@
+package org.kartkrew.ringracers;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Where each touch control sits, in density-independent pixels.
+ *
+ * Each entry is a control ID (a TouchControl, or DPAD for the pad) with
+ * an anchor corner, the gap between the control and that corner's edges,
+ * and a size. TouchControlsView turns it into pixels for the current
+ * view size and density, so one layout fits every screen and rotation.
+ *
+ * The file format is deliberately tiny, all big-endian:
+ *
+ *   int   MAGIC
+ *   byte  VERSION
+ *   byte  entry count
+ *   then per entry: byte id, byte anchor, short x, y, width, height
+ *
+ * with lengths in UNITS_PER_DP. No Android dependencies, so it can be
+ * exercised on a plain JVM.
+ */
+public class TouchLayout {
+    public static final String FILE_NAME = "touch_layout.bin";
+
+    public static final int DPAD = 0xFF;
+
+    public static final int ANCHOR_LEFT = 0;
+    public static final int ANCHOR_RIGHT = 1;
+    public static final int ANCHOR_TOP = 0;
+    public static final int ANCHOR_BOTTOM = 2;
+
+    private static final int MAGIC = 0x5252544C; // "RRTL"
+    private static final int VERSION = 1;
+    private static final int MAX_ENTRIES = 64;
+    private static final float UNITS_PER_DP = 8f;
+
+    private final int[] ids = new int[MAX_ENTRIES];
+    private final int[] anchors = new int[MAX_ENTRIES];
+    private final float[] geometry = new float[MAX_ENTRIES * 4]; // x, y, width, height in dp
+    private int count;
+    private boolean modified;
+
+    /**
+     * The stock layout: D-pad bottom left, face buttons in a diamond
+     * bottom right, pause top right.
+     */
+    public static TouchLayout createDefault() {
+        final float m = 24f;  // Screen margin
+        final float b = 56f;  // Button size
+        final float r = 64f;  // D-pad radius
+
+        TouchLayout layout = new TouchLayout();
+        int rb = ANCHOR_RIGHT | ANCHOR_BOTTOM;
+        layout.set(TouchControl.ACCELERATE, rb, m, m + b, b, b);
+        layout.set(TouchControl.BRAKE, rb, m + b, m, b, b);
+        layout.set(TouchControl.DRIFT, rb, m + b * 2, m + b, b, b);
+        layout.set(TouchControl.ITEM, rb, m + b, m + b * 2, b, b);
+        layout.set(TouchControl.LOOKBACK, rb, m + b * 2, m, b, b);
+        layout.set(TouchControl.PAUSE, ANCHOR_RIGHT | ANCHOR_TOP, m, m, b * 0.6f, b * 0.6f);
+        layout.set(DPAD, ANCHOR_LEFT | ANCHOR_BOTTOM, m, m, r * 2, r * 2);
+        layout.modified = false;
+        return layout;
+    }
+
+    /**
+     * Layout saved in file, or the default if there is none or it can't
+     * be read.
+     */
+    public static TouchLayout loadOrDefault(File file) {
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                return read(in);
+            } catch (IOException e) {
+                // Fall through to the default
+            }
+        }
+        return createDefault();
+    }
+
+    public static TouchLayout read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) throw new IOException("Not a touch layout");
+        int version = in.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Unsupported touch layout version " + version);
+
+        TouchLayout layout = new TouchLayout();
+        int n = in.readUnsignedByte();
+        if (n > MAX_ENTRIES) throw new IOException("Too many touch layout entries");
+        for (int i = 0; i < n; i++) {
+            int id = in.readUnsignedByte();
+            int anchor = in.readUnsignedByte();
+            float x = in.readShort() / UNITS_PER_DP;
+            float y = in.readShort() / UNITS_PER_DP;
+            float w = in.readShort() / UNITS_PER_DP;
+            float h = in.readShort() / UNITS_PER_DP;
+            layout.set(id, anchor, x, y, w, h);
+        }
+        layout.modified = false;
+        return layout;
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(count);
+        for (int i = 0, o = 0; i < count; i++, o += 4) {
+            out.writeByte(ids[i]);
+            out.writeByte(anchors[i]);
+            for (int k = 0; k < 4; k++) {
+                out.writeShort(Math.round(geometry[o + k] * UNITS_PER_DP));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Write through a temp file so a crash never leaves half a layout.
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            write(fos);
+            fos.getFD().sync();
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+        modified = false;
+    }
+
+    /**
+     * Place control id, replacing any existing entry for it.
+     */
+    public void set(int id, int anchor, float x, float y, float width, float height) {
+        int i = indexOf(id);
+        if (i < 0) {
+            if (count == MAX_ENTRIES) throw new IllegalStateException("TouchLayout is full");
+            i = count++;
+            ids[i] = id;
+        }
+        anchors[i] = anchor;
+        int o = i * 4;
+        geometry[o] = x;
+        geometry[o + 1] = y;
+        geometry[o + 2] = width;
+        geometry[o + 3] = height;
+        modified = true;
+    }
+
+    /**
+     * Move control id by dx, dy dp on screen, whichever corner it is
+     * anchored to.
+     */
+    public void moveBy(int id, float dx, float dy) {
+        int i = indexOf(id);
+        if (i < 0) return;
+
+        int o = i * 4;
+        geometry[o] += (anchors[i] & ANCHOR_RIGHT) != 0 ? -dx : dx;
+        geometry[o + 1] += (anchors[i] & ANCHOR_BOTTOM) != 0 ? -dy : dy;
+        modified = true;
+    }
+
+    public boolean has(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Pixel bounds of control id in a width x height view, into
+     * out[offset .. offset+3] as left, top, right, bottom. Returns false,
+     * leaving out alone, if the layout has no such control.
+     */
+    public boolean resolve(int id, float width, float height, float density, float[] out, int offset) {
+        int i = indexOf(id);
+        if (i < 0) return false;
+
+        int o = i * 4;
+        float x = geometry[o] * density;
+        float y = geometry[o + 1] * density;
+        float w = geometry[o + 2] * density;
+        float h = geometry[o + 3] * density;
+
+        float left = (anchors[i] & ANCHOR_RIGHT) != 0 ? width - x - w : x;
+        float top = (anchors[i] & ANCHOR_BOTTOM) != 0 ? height - y - h : y;
+        out[offset] = left;
+        out[offset + 1] = top;
+        out[offset + 2] = left + w;
+        out[offset + 3] = top + h;
+        return true;
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) return i;
+        }
+        return -1;
+    }
+}
@@ -6,6 +6,7 @@ import android.content.pm.ActivityInfo;
 import android.graphics.PixelFormat;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.Display;
 import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
@@ -32,6 +33,10 @@ public class SDLActivity extends Activity implements SurfaceHolder.Callback,
     public static FrameLayout mLayout;
     protected static Thread mSDLThread;
     
+    // Surface buffer size, which can be smaller than the view when it
+    // has a fixed size
+    protected static int mSurfaceWidth, mSurfaceHeight;
+    
     // Native functions (implemented in SDL library)
     public static native int nativeInit(Object arguments);
     public static native void nativeLowMemory();
@@ -152,9 +157,16 @@ public class SDLActivity extends Activity implements SurfaceHolder.Callback,
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
         Log.v(TAG, "surfaceChanged: " + width + "x" + height);
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+        
+        // The display's actual rate; FramePacer keeps the engine up to
+        // date if it changes while the surface stays the same size
+        Display display = mSurface != null ? mSurface.getDisplay() : null;
+        float rate = display != null ? display.getRefreshRate() : 60.0f;
         
         try {
-            onNativeResize(width, height, format, 60.0f);
+            onNativeResize(width, height, format, rate);
         } catch (Exception e) {}
         
         // Start SDL thread if not running
@@ -188,10 +200,14 @@ public class SDLActivity extends Activity implements SurfaceHolder.Callback,
         int action = event.getActionMasked();
         int pointerCount = event.getPointerCount();
         
+        // Touches are in view pixels, SDL wants surface pixels
+        float sx = v.getWidth() > 0 && mSurfaceWidth > 0 ? (float) mSurfaceWidth / v.getWidth() : 1f;
+        float sy = v.getHeight() > 0 && mSurfaceHeight > 0 ? (float) mSurfaceHeight / v.getHeight() : 1f;
+        
         for (int i = 0; i < pointerCount; i++) {
             int pointerId = event.getPointerId(i);
-            float x = event.getX(i);
-            float y = event.getY(i);
+            float x = event.getX(i) * sx;
+            float y = event.getY(i) * sy;
             float p = event.getPressure(i);
             
             try {
@@ -0,0 +1,206 @@
+package org.kartkrew.ringracers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * AssetExtractor against a synthetic gamedata tree in a temp directory:
+ * a few large pk3s read as file ranges, like stored APK entries, and a
+ * spread of small files read as streams, like compressed ones.
+ *
+ * Always checks the copies byte for byte. Pass
+ * -Pringracers.benchmarkMb=N to size the large files for a real
+ * throughput comparison; the default keeps the test quick.
+ *
+ * The printed speedup is a host number, not a stand-in for the 3x
+ * first-launch target: that depends on the device's flash and cores
+ * and has to be measured on one.
+ */
+public class AssetExtractorBenchmark {
+    private static final int LARGE_FILES = 4;
+    private static final int SMALL_FILES = 64;
+    private static final int SMALL_SIZE = 64 << 10;
+    private static final String STREAMED_DIR = "streamed/";
+    private static final int PARALLEL_THREADS = 4;
+
+    private File root;
+    private File srcDir;
+    private final List<String> paths = new ArrayList<>();
+    private final List<String> hashes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("ringracers-assets").toFile();
+        srcDir = new File(root, "src");
+
+        long largeSize = Long.getLong("ringracers.benchmarkMb", 8) << 20;
+        Random random = new Random(1234);
+        for (int i = 0; i < LARGE_FILES; i++) {
+            add("main" + i + ".pk3", largeSize + i * 4099L, random);
+        }
+        for (int i = 0; i < SMALL_FILES; i++) {
+            add(STREAMED_DIR + "lua" + i + ".lua", SMALL_SIZE - i * 97L, random);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteTree(root);
+    }
+
+    @Test
+    public void copiesEveryFileIntact() throws IOException {
+        File dest = new File(root, "out");
+        new AssetExtractor(source(), 1).extractAll(jobs(dest));
+        verify(dest);
+    }
+
+    @Test
+    public void parallelMatchesSerial() throws IOException {
+        long serial = timed(1);
+        long parallel = timed(PARALLEL_THREADS);
+
+        long bytes = 0;
+        for (String path : paths) bytes += new File(srcDir, path).length();
+        System.out.println(String.format(Locale.US,
+            "AssetExtractor: %d files, %.1f MB, 1 thread %.1f MB/s, %d threads %.1f MB/s (%.2fx)",
+            paths.size(), bytes / 1048576.0,
+            bytes / 1048576.0 / (serial / 1e9), PARALLEL_THREADS,
+            bytes / 1048576.0 / (parallel / 1e9), (double) serial / parallel));
+    }
+
+    @Test
+    public void checkpointFromAnotherVersionIsNotResumed() throws IOException {
+        File dest = new File(root, "out");
+        String path = paths.get(0);
+        File destFile = new File(dest, path);
+        destFile.getParentFile().mkdirs();
+
+        // An interrupted copy of an older build of the same file
+        long stale = 1 << 20;
+        try (FileOutputStream out = new FileOutputStream(destFile.getPath() + ".part")) {
+            out.write(new byte[(int) stale]);
+        }
+        try (DataOutputStream cp = new DataOutputStream(new FileOutputStream(destFile.getPath() + ".part.offset"))) {
+            cp.writeLong(new File(srcDir, path).length());
+            cp.writeUTF("00000000");
+            cp.writeLong(stale);
+        }
+
+        new AssetExtractor(source(), 1).extractAll(jobs(dest));
+        verify(dest);
+    }
+
+    @Test
+    public void hashMismatchFailsWithoutPublishing() throws IOException {
+        File dest = new File(root, "out");
+        String path = paths.get(0);
+        File destFile = new File(dest, path);
+        long size = new File(srcDir, path).length();
+
+        try {
+            new AssetExtractor(source(), 1).copy(new AssetExtractor.Job(path, destFile, size, "00000000", 0));
+            fail("Copy with the wrong hash succeeded");
+        } catch (IOException expected) {
+            // Reported, and neither the file nor its partial copy are left
+        }
+        assertFalse(destFile.exists());
+        assertFalse(new File(destFile.getPath() + ".part").exists());
+    }
+
+    private long timed(int threads) throws IOException {
+        File dest = new File(root, "out" + threads);
+        long start = System.nanoTime();
+        new AssetExtractor(source(), threads).extractAll(jobs(dest));
+        long elapsed = System.nanoTime() - start;
+        verify(dest);
+        deleteTree(dest);
+        return elapsed;
+    }
+
+    private void add(String path, long size, Random random) throws IOException {
+        File file = new File(srcDir, path);
+        file.getParentFile().mkdirs();
+
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[1 << 16];
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (long left = size; left > 0; ) {
+                int n = (int) Math.min(chunk.length, left);
+                random.nextBytes(chunk);
+                out.write(chunk, 0, n);
+                crc.update(chunk, 0, n);
+                left -= n;
+            }
+        }
+        paths.add(path);
+        hashes.add(String.format(Locale.US, "%08x", crc.getValue()));
+    }
+
+    private List<AssetExtractor.Job> jobs(File dest) {
+        List<AssetExtractor.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            jobs.add(new AssetExtractor.Job(path, new File(dest, path), new File(srcDir, path).length(), hashes.get(i), 0));
+        }
+        Collections.shuffle(jobs, new Random(5678));
+        return jobs;
+    }
+
+    private void verify(File dest) throws IOException {
+        for (String path : paths) {
+            File copy = new File(dest, path);
+            assertTrue(path + " missing", copy.exists());
+            assertEquals(path, new File(srcDir, path).length(), copy.length());
+            assertArrayEquals(path, Files.readAllBytes(new File(srcDir, path).toPath()), Files.readAllBytes(copy.toPath()));
+            assertFalse(new File(copy.getPath() + ".part").exists());
+            assertFalse(new File(copy.getPath() + ".part.offset").exists());
+        }
+    }
+
+    // Stored files come back as ranges of their file, STREAMED_DIR ones only as streams
+    private AssetExtractor.Source source() {
+        return new AssetExtractor.Source() {
+            @Override
+            public AssetExtractor.Region openRegion(String path) throws IOException {
+                if (path.startsWith(STREAMED_DIR)) return null;
+                FileInputStream in = new FileInputStream(new File(srcDir, path));
+                return new AssetExtractor.Region(in.getChannel(), 0, in.getChannel().size(), in);
+            }
+
+            @Override
+            public InputStream openStream(String path) throws IOException {
+                return new FileInputStream(new File(srcDir, path));
+            }
+        };
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteTree(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,167 @@
+package org.kartkrew.ringracers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+
+import android.graphics.Canvas;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The per-frame overlay work: resolving touches against the model,
+ * feeding the gesture engine and reading back what is held, then the
+ * same through TouchControlsView itself, drawing each frame with onDraw
+ * on the no-op Canvas of the unit test android.jar. Once warm, none of it
+ * may allocate. Allocations inside the real Canvas are not counted.
+ */
+public class TouchAllocationTest {
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int MEASURED_FRAMES = 1000;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    private static final int WIDTH = 2400, HEIGHT = 1080;
+    private static final float DENSITY = 2.75f;
+    private static final int[] IDS = { TouchControl.ACCELERATE, TouchControl.BRAKE, TouchControl.DRIFT,
+        TouchControl.ITEM, TouchControl.LOOKBACK, TouchControl.PAUSE };
+
+    private TouchControlModel buttons;
+    private GestureEngine gestures;
+    private long sink;
+
+    private TouchControlsView view;
+    private final Canvas canvas = new Canvas();
+    private final float[] centers = new float[(IDS.length + 1) * 2];
+
+    @Before
+    public void setUp() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("JVM can't count allocated bytes", bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        TouchLayout layout = TouchLayout.createDefault();
+        float[] rect = new float[4];
+        buttons = new TouchControlModel(IDS.length);
+        for (int i = 0; i < IDS.length; i++) {
+            int slot = buttons.add(IDS[i], "");
+            layout.resolve(IDS[i], WIDTH, HEIGHT, DENSITY, rect, 0);
+            buttons.setBounds(slot, rect[0], rect[1], rect[2], rect[3]);
+            centers[i * 2] = (rect[0] + rect[2]) * 0.5f;
+            centers[i * 2 + 1] = (rect[1] + rect[3]) * 0.5f;
+        }
+        buttons.buildGrid(WIDTH, HEIGHT, 96);
+
+        // Last entry is a point up and left of the pad's center
+        layout.resolve(TouchLayout.DPAD, WIDTH, HEIGHT, DENSITY, rect, 0);
+        centers[IDS.length * 2] = rect[0] + (rect[2] - rect[0]) * 0.3f;
+        centers[IDS.length * 2 + 1] = rect[1] + (rect[3] - rect[1]) * 0.3f;
+
+        gestures = new GestureEngine(e -> sink += e.control + (e.pressed ? 1 : 0));
+        addRules(gestures);
+
+        view = new TouchControlsView(null, DENSITY);
+        view.setTouchControlsListener((control, pressed) -> sink += control + (pressed ? 1 : 0));
+        addRules(view.getGestures());
+        view.onSizeChanged(WIDTH, HEIGHT, 0, 0);
+    }
+
+    private static void addRules(GestureEngine g) {
+        g.setSwipe(130f, TouchControl.DRIFT);
+        g.addHold(TouchControl.BRAKE, 350, TouchControl.SPINDASH);
+        g.addChord(new int[] { TouchControl.ITEM, TouchControl.BRAKE }, TouchControl.AIM_DOWN, TouchControl.ITEM);
+    }
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() {
+        long time = 0;
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            time = frame(i, time);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            time = frame(i, time);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals("bytes allocated over " + MEASURED_FRAMES + " frames", 0L, allocated);
+    }
+
+    @Test
+    public void drawnFramesDoNotAllocate() {
+        assertDrawDoesNotAllocate();
+    }
+
+    @Test
+    public void drawnAnalogFramesDoNotAllocate() {
+        view.setAnalogStick(true);
+        assertDrawDoesNotAllocate();
+    }
+
+    private void assertDrawDoesNotAllocate() {
+        long time = 0;
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            time = drawFrame(i, time);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            time = drawFrame(i, time);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals("bytes allocated over " + MEASURED_FRAMES + " drawn frames", 0L, allocated);
+    }
+
+    // One 16ms frame: a finger going down, sliding and lifting on every
+    // button in turn, then a read of everything held like drawActive does
+    private long frame(int n, long time) {
+        int slot = n % buttons.size();
+        float x = buttons.centerX(slot), y = buttons.centerY(slot);
+        int pid = n & 3;
+
+        int hit = buttons.hitTest(x, y);
+        if (hit != TouchControlModel.NO_SLOT) {
+            buttons.press(hit, pid);
+            gestures.pointerDown(pid, x);
+            gestures.setControl(buttons.id(hit), true, time);
+        }
+        gestures.pointerMove(pid, x + (n & 8) * 20f, time + 4);
+        gestures.update(time + 8);
+
+        for (int i = 0; i < buttons.size(); i++) {
+            if (buttons.isPressed(i) || gestures.isHeld(buttons.id(i))) sink += i;
+        }
+
+        long released = buttons.releasePointer(pid);
+        while (released != 0) {
+            int s = Long.numberOfTrailingZeros(released);
+            released &= released - 1;
+            gestures.setControl(buttons.id(s), false, time + 12);
+        }
+        gestures.pointerUp(pid, time + 12);
+        return time + 16;
+    }
+
+    // One 16ms frame on the view: the pad and one button held together,
+    // a draw with both highlighted, then both lifted
+    private long drawFrame(int n, long time) {
+        int slot = n % IDS.length;
+        int pad = IDS.length * 2;
+
+        view.handleDown(centers[pad], centers[pad + 1], 0, time);
+        view.handleDown(centers[slot * 2], centers[slot * 2 + 1], 1, time + 2);
+        view.onDraw(canvas);
+        view.handleUp(1);
+        view.handleUp(0);
+        view.onDraw(canvas);
+        return time + 16;
+    }
+}
@@ -0,0 +1,122 @@
+package org.kartkrew.ringracers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TouchControlModelTest {
+    private TouchControlModel model;
+    private int accel, brake, item;
+
+    @Before
+    public void setUp() {
+        model = new TouchControlModel(8);
+        accel = model.add(TouchControl.ACCELERATE, "A");
+        brake = model.add(TouchControl.BRAKE, "B");
+        item = model.add(TouchControl.ITEM, "I");
+        model.setBounds(accel, 100, 100, 200, 200);
+        model.setBounds(brake, 200, 100, 300, 200);
+        // Overlaps accel; accel was added first so it wins
+        model.setBounds(item, 150, 150, 250, 250);
+    }
+
+    @Test
+    public void addAssignsSlotsInOrder() {
+        assertEquals(3, model.size());
+        assertEquals(TouchControl.BRAKE, model.id(brake));
+        assertEquals("I", model.label(item));
+        assertEquals(150f, model.centerX(accel), 0f);
+        assertEquals(TouchControlModel.NO_POINTER, model.pointerId(item));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addPastCapacityThrows() {
+        TouchControlModel small = new TouchControlModel(1);
+        small.add(TouchControl.ACCELERATE, "A");
+        small.add(TouchControl.BRAKE, "B");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityIsLimitedToMaskWidth() {
+        new TouchControlModel(TouchControlModel.MAX_CONTROLS + 1);
+    }
+
+    @Test
+    public void hitTestUsesRectEdgeRules() {
+        assertEquals(accel, model.hitTest(100, 100));
+        assertEquals(accel, model.hitTest(199.9f, 120));
+        assertEquals(brake, model.hitTest(200, 120));
+        assertEquals(TouchControlModel.NO_SLOT, model.hitTest(300, 120));
+        assertEquals(TouchControlModel.NO_SLOT, model.hitTest(150, 250));
+        assertEquals(TouchControlModel.NO_SLOT, model.hitTest(50, 50));
+    }
+
+    @Test
+    public void hitTestPrefersFirstAddedOnOverlap() {
+        assertEquals(accel, model.hitTest(175, 175));
+        assertEquals(brake, model.hitTest(225, 175));
+        assertEquals(item, model.hitTest(175, 225));
+    }
+
+    @Test
+    public void gridAgreesWithScanAndIsDroppedOnMove() {
+        model.buildGrid(400, 300, 64);
+        assertEquals(accel, model.hitTest(175, 175));
+        assertEquals(item, model.hitTest(240, 240));
+        assertEquals(TouchControlModel.NO_SLOT, model.hitTest(350, 50));
+
+        // A stale grid would still send this point to item
+        model.setBounds(item, 300, 0, 400, 100);
+        assertEquals(TouchControlModel.NO_SLOT, model.hitTest(240, 240));
+        assertEquals(item, model.hitTest(350, 50));
+    }
+
+    @Test
+    public void pressTracksPointer() {
+        assertFalse(model.anyPressed());
+
+        model.press(brake, 7);
+        assertTrue(model.isPressed(brake));
+        assertFalse(model.isPressed(accel));
+        assertTrue(model.anyPressed());
+        assertEquals(7, model.pointerId(brake));
+
+        model.release(brake);
+        assertFalse(model.isPressed(brake));
+        assertFalse(model.anyPressed());
+        assertEquals(TouchControlModel.NO_POINTER, model.pointerId(brake));
+    }
+
+    @Test
+    public void releasePointerOnlyReleasesItsOwnSlots() {
+        model.press(accel, 1);
+        model.press(item, 1);
+        model.press(brake, 2);
+
+        long released = model.releasePointer(1);
+        assertEquals((1L << accel) | (1L << item), released);
+        assertFalse(model.isPressed(accel));
+        assertFalse(model.isPressed(item));
+        assertTrue(model.isPressed(brake));
+        assertEquals(2, model.pointerId(brake));
+
+        assertEquals(0L, model.releasePointer(1));
+        assertEquals(0L, model.releasePointer(99));
+    }
+
+    @Test
+    public void releaseAllReportsWhatWasHeld() {
+        model.press(accel, 1);
+        model.press(brake, 2);
+
+        assertEquals((1L << accel) | (1L << brake), model.releaseAll());
+        assertFalse(model.anyPressed());
+        for (int slot = 0; slot < model.size(); slot++) {
+            assertEquals(TouchControlModel.NO_POINTER, model.pointerId(slot));
+        }
+        assertEquals(0L, model.releaseAll());
+    }
+}
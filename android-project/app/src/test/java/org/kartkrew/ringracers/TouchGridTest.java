@@ -0,0 +1,68 @@
+package org.kartkrew.ringracers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The hit-test grid must answer exactly like a scan of every rect, for
+ * any layout, cell size and touch point, including points off the grid.
+ */
+public class TouchGridTest {
+    private static final int LAYOUTS = 200;
+    private static final int POINTS = 2000;
+
+    @Test
+    public void gridMatchesLinearScan() {
+        Random random = new Random(42);
+
+        for (int layout = 0; layout < LAYOUTS; layout++) {
+            float width = 200 + random.nextInt(2400);
+            float height = 200 + random.nextInt(1400);
+            int count = 1 + random.nextInt(TouchControlModel.MAX_CONTROLS);
+
+            TouchControlModel model = new TouchControlModel(count);
+            float[] rects = new float[count * 4];
+            for (int slot = 0; slot < count; slot++) {
+                model.add(slot, "");
+                // Some overlap, some hang off the edges, some are empty
+                float l = random.nextFloat() * width * 1.2f - width * 0.1f;
+                float t = random.nextFloat() * height * 1.2f - height * 0.1f;
+                float r = l + random.nextFloat() * width * 0.3f;
+                float b = t + random.nextFloat() * height * 0.3f;
+                rects[slot * 4] = l;
+                rects[slot * 4 + 1] = t;
+                rects[slot * 4 + 2] = r;
+                rects[slot * 4 + 3] = b;
+                model.setBounds(slot, l, t, r, b);
+            }
+            model.buildGrid(width, height, 16 + random.nextInt(240));
+
+            for (int i = 0; i < POINTS; i++) {
+                float x, y;
+                if (i % 4 == 0) {
+                    // Right on an edge of some rect
+                    int o = random.nextInt(count) * 4;
+                    x = rects[o + random.nextInt(2) * 2];
+                    y = rects[o + 1 + random.nextInt(2) * 2];
+                } else {
+                    x = random.nextFloat() * width * 1.4f - width * 0.2f;
+                    y = random.nextFloat() * height * 1.4f - height * 0.2f;
+                }
+                assertEquals("layout " + layout + " at " + x + "," + y, scan(rects, count, x, y), model.hitTest(x, y));
+            }
+        }
+    }
+
+    private static int scan(float[] rects, int count, float x, float y) {
+        for (int slot = 0; slot < count; slot++) {
+            int o = slot * 4;
+            if (x >= rects[o] && x < rects[o + 2] && y >= rects[o + 1] && y < rects[o + 3]) {
+                return slot;
+            }
+        }
+        return TouchControlModel.NO_SLOT;
+    }
+}
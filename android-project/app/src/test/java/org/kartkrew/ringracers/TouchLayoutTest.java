@@ -0,0 +1,92 @@
+package org.kartkrew.ringracers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TouchLayoutTest {
+    private static final int[] DEFAULT_IDS = {
+        TouchControl.ACCELERATE, TouchControl.BRAKE, TouchControl.DRIFT, TouchControl.ITEM,
+        TouchControl.LOOKBACK, TouchControl.PAUSE, TouchLayout.DPAD,
+    };
+
+    @Test
+    public void defaultRoundTripsUnchanged() throws IOException {
+        TouchLayout layout = TouchLayout.createDefault();
+        TouchLayout copy = roundTrip(layout);
+
+        assertFalse(copy.isModified());
+        assertSameGeometry(layout, copy, DEFAULT_IDS);
+    }
+
+    @Test
+    public void editedLayoutRoundTrips() throws IOException {
+        TouchLayout layout = TouchLayout.createDefault();
+        layout.moveBy(TouchControl.ITEM, -13.25f, 7.5f);
+        layout.moveBy(TouchLayout.DPAD, 40f, -22.125f);
+        layout.set(TouchControl.SPINDASH, TouchLayout.ANCHOR_LEFT | TouchLayout.ANCHOR_TOP, 10.5f, 300.25f, 48f, 48f);
+        assertTrue(layout.isModified());
+
+        TouchLayout copy = roundTrip(layout);
+        assertTrue(copy.has(TouchControl.SPINDASH));
+        assertSameGeometry(layout, copy, DEFAULT_IDS);
+        assertSameGeometry(layout, copy, new int[] { TouchControl.SPINDASH });
+    }
+
+    @Test
+    public void lengthsAreKeptToAnEighthOfADp() throws IOException {
+        TouchLayout layout = new TouchLayout();
+        layout.set(TouchControl.BRAKE, TouchLayout.ANCHOR_LEFT | TouchLayout.ANCHOR_TOP, 10.06f, 20.2f, 30.3f, 40.44f);
+
+        float[] px = new float[4];
+        assertTrue(roundTrip(layout).resolve(TouchControl.BRAKE, 1000, 1000, 1f, px, 0));
+        assertArrayEquals(new float[] { 10f, 20.25f, 40.25f, 60.75f }, px, 0f);
+    }
+
+    @Test
+    public void resolveHonoursAnchors() {
+        TouchLayout layout = new TouchLayout();
+        layout.set(TouchControl.PAUSE, TouchLayout.ANCHOR_RIGHT | TouchLayout.ANCHOR_BOTTOM, 10f, 20f, 30f, 40f);
+
+        float[] px = new float[6];
+        assertTrue(layout.resolve(TouchControl.PAUSE, 1000, 500, 2f, px, 2));
+        assertArrayEquals(new float[] { 0f, 0f, 920f, 380f, 980f, 460f }, px, 0f);
+        assertFalse(layout.resolve(TouchControl.ITEM, 1000, 500, 2f, px, 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        TouchLayout.read(new ByteArrayInputStream(new byte[] { 'P', 'K', 3, 4, 1, 0 }));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TouchLayout.createDefault().write(out);
+        byte[] bytes = out.toByteArray();
+        TouchLayout.read(new ByteArrayInputStream(bytes, 0, bytes.length - 3));
+    }
+
+    private static TouchLayout roundTrip(TouchLayout layout) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        layout.write(out);
+        return TouchLayout.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    // Written lengths are rounded to UNITS_PER_DP, compare what they resolve to
+    private static void assertSameGeometry(TouchLayout expected, TouchLayout actual, int[] ids) {
+        float[] a = new float[4], b = new float[4];
+        for (int id : ids) {
+            assertTrue(expected.resolve(id, 2400, 1080, 2.75f, a, 0));
+            assertTrue(actual.resolve(id, 2400, 1080, 2.75f, b, 0));
+            assertArrayEquals(a, b, 2.75f / 16f);
+        }
+    }
+}
@@ -1,3 +1,7 @@
+# Legacy frontend in android/, stale: several sources listed here are now
+# .cpp or gone. Does not build; see android/README. The maintained port is
+# android-project/.
+
 LOCAL_PATH := $(call my-dir)
 
 srb_module_tags := eng user
@@ -102,6 +102,10 @@
 
 #include "lua_profile.h"
 
+#ifdef ANDROID
+#include "android_dynres.h"
+#endif
+
 extern "C" consvar_t cv_lua_profile, cv_menuframeskip;
 
 /* Manually defined asset hashes
@@ -922,6 +926,9 @@ void D_SRB2Loop(void)
 
 		bool ranwipe = false;
 		bool world = false;
+#ifdef ANDROID
+		bool presented = false;
+#endif
 
 		I_UpdateTime();
 
@@ -1067,6 +1074,9 @@ void D_SRB2Loop(void)
 			}
 
 			ranwipe = D_Display(world);
+#ifdef ANDROID
+			presented = !ranwipe;
+#endif
 		}
 
 #ifdef HWRENDER
@@ -1109,6 +1119,18 @@ void D_SRB2Loop(void)
 		deltasecs = (double)((INT64)(finishprecise - enterprecise)) / I_GetPrecisePrecision();
 		deltatics = deltasecs * NEWTICRATE;
 
+#ifdef ANDROID
+		if (presented)
+		{
+			// Everything but the present is CPU work; waiting in the
+			// present is where a GPU that can't keep up shows
+			const double tons = 1e9 / I_GetPrecisePrecision();
+			const INT64 frame = (INT64)(finishprecise - enterprecise);
+			AndroidDynRes_FrameTimes((int64_t)((frame - (INT64)ps_swaptime) * tons), (int64_t)((INT64)ps_swaptime * tons));
+		}
+		I_UpdateDynamicResolution();
+#endif
+
 		// If time spent this game loop exceeds a single tic,
 		// it's probably because of rendering.
 		//
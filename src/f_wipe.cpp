@@ -39,9 +39,9 @@
 #include "hardware/hw_main.h"
 #endif
 
-#if NUMSCREENS < 5
-#define NOWIPE // do not enable wipe image post processing for ARM, SH and MIPS CPUs
-#endif
+// Wipes draw from RHI textures (wipe_frames), not the spare software
+// screens, so they work with any NUMSCREENS. Define NOWIPE to build
+// without them.
 
 // SRB2Kart
 #include "k_menu.h"
@@ -40,6 +40,10 @@
 #include "tables.h"
 #include "m_random.h" // monkey input
 
+#ifdef ANDROID
+#include "android_input.h"
+#endif
+
 extern "C" consvar_t cv_1pswap;
 
 namespace
@@ -482,5 +486,9 @@ public:
 
 void G_BuildTiccmd(ticcmd_t *cmd, INT32 realtics, UINT8 ssplayer)
 {
+#ifdef ANDROID
+	AndroidInput_NoteTiccmd();
+#endif
+
 	TiccmdBuilder(cmd, realtics, ssplayer);
 }
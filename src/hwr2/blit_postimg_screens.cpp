@@ -104,6 +104,35 @@ void BlitPostimgScreens::draw(Rhi& rhi)
 			glm::vec3(screen_config.uv_offset + flip_mirror_uv_displace, 1.0)
 		};
 
+		if (screen_config.roll != glm::vec2(1.f, 0.f))
+		{
+			// Rotate about the middle of the view, in its own pixel space,
+			// before the flip and mirror; the same mapping the software
+			// renderer's view morph remaps screens with
+			const float c = screen_config.roll.x;
+			const float s = screen_config.roll.y;
+			const float aspect = (screen_config.uv_size.x * target_width_) / (screen_config.uv_size.y * target_height_);
+			const glm::mat3 roll =
+			{
+				glm::vec3(c, s * aspect, 0.0),
+				glm::vec3(-s / aspect, c, 0.0),
+				glm::vec3(0.5f - 0.5f * c + 0.5f * s / aspect, 0.5f - 0.5f * s * aspect - 0.5f * c, 1.0)
+			};
+			const glm::mat3 flip_mirror =
+			{
+				glm::vec3(screen_config.post.mirror ? -1 : 1, 0.0, 0.0),
+				glm::vec3(0.0, screen_config.post.flip ? -1 : 1, 0.0),
+				glm::vec3(screen_config.post.mirror ? 1 : 0, screen_config.post.flip ? 1 : 0, 1.0)
+			};
+			const glm::mat3 to_screen =
+			{
+				glm::vec3(screen_config.uv_size.x, 0.0, 0.0),
+				glm::vec3(0.0, screen_config.uv_size.y, 0.0),
+				glm::vec3(screen_config.uv_offset, 1.0)
+			};
+			texcoord_transform = to_screen * roll * flip_mirror;
+		}
+
 		glm::vec2 texcoord_min = screen_config.uv_offset;
 		glm::vec2 texcoord_max = screen_config.uv_offset + screen_config.uv_size;
 
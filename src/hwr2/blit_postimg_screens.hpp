@@ -41,6 +41,8 @@ public:
 		glm::vec2 uv_offset {};
 		glm::vec2 uv_size {};
 		PostImgConfig post;
+		// Cosine and sine of the view roll, divided by the zoom it needs
+		glm::vec2 roll {1.f, 0.f};
 	};
 
 private:
@@ -10,9 +10,18 @@
 
 #include "patch_atlas.hpp"
 
+#include <array>
+#include <cstring>
+#include <filesystem>
+#include <stdexcept>
+
 #include <stb_rect_pack.h>
+#include <zlib.h>
 
+#include "../console.h"
+#include "../io/streams.hpp"
 #include "../r_patch.h"
+#include "../w_wad.h"
 
 using namespace srb2;
 using namespace srb2::hwr2;
@@ -124,16 +133,56 @@ void srb2::hwr2::convert_patch_to_trimmed_rg8_pixels(const patch_t* patch, srb2:
 	}
 }
 
+// Bump the version when the file layout or patch conversion changes
+static constexpr std::array<char, 8> kSavedMagic {'R', 'R', 'P', 'A', 'T', 'L', 'A', 'S'};
+static constexpr uint32_t kSavedVersion = 1;
+
+static std::string wad_file_name(const wadfile_t* wad)
+{
+	const char* slash = std::strrchr(wad->filename, '/');
+	return slash != nullptr ? slash + 1 : wad->filename;
+}
+
+static uint64_t wad_directory_hash(const wadfile_t* wad)
+{
+	// NOMD5 builds (Android) never have the wad's md5, so a wad is known by its
+	// lump directory instead: editing any lump moves or resizes something. FNV-1a.
+	uint64_t hash = 0xcbf29ce484222325ULL;
+	auto mix = [&hash](const void* data, size_t size)
+	{
+		const uint8_t* bytes = static_cast<const uint8_t*>(data);
+		for (size_t i = 0; i < size; i++)
+		{
+			hash = (hash ^ bytes[i]) * 0x100000001b3ULL;
+		}
+	};
+	auto mix_u64 = [&mix](uint64_t value) { mix(&value, sizeof(value)); };
+
+#ifndef NOMD5
+	mix(wad->md5sum, sizeof(wad->md5sum));
+#endif
+	mix_u64(wad->numlumps);
+	for (UINT16 i = 0; i < wad->numlumps; i++)
+	{
+		const lumpinfo_t& lump = wad->lumpinfo[i];
+		mix_u64(lump.position);
+		mix_u64(lump.disksize);
+		mix_u64(lump.size);
+		mix_u64(lump.compression);
+		mix(lump.name, strnlen(lump.name, sizeof(lump.name)));
+		if (lump.fullname != nullptr)
+		{
+			mix(lump.fullname, std::strlen(lump.fullname));
+		}
+	}
+	return hash;
+}
+
 PatchAtlas::PatchAtlas(Handle<Texture> texture, uint32_t size) : tex_(texture), size_(size)
 {
 	rp_ctx = std::make_unique<stbrp_context>();
 	rp_nodes = std::make_unique<stbrp_node[]>(size * 2);
-	const size_t double_size = size * 2;
-	for (size_t i = 0; i < double_size; i++)
-	{
-		rp_nodes[i] = {};
-	}
-	stbrp_init_target(rp_ctx.get(), size, size, rp_nodes.get(), double_size);
+	clear();
 }
 
 PatchAtlas::PatchAtlas(PatchAtlas&&) = default;
@@ -144,6 +193,17 @@ void PatchAtlas::pack_rects(tcb::span<stbrp_rect> rects)
 	stbrp_pack_rects(rp_ctx.get(), rects.data(), rects.size());
 }
 
+void PatchAtlas::clear()
+{
+	const size_t double_size = size_ * 2;
+	for (size_t i = 0; i < double_size; i++)
+	{
+		rp_nodes[i] = {};
+	}
+	stbrp_init_target(rp_ctx.get(), size_, size_, rp_nodes.get(), double_size);
+	entries_.clear();
+}
+
 std::optional<PatchAtlas::Entry> PatchAtlas::find_patch(srb2::NotNull<const patch_t*> patch) const
 {
 	auto itr = entries_.find(patch);
@@ -180,15 +240,61 @@ bool PatchAtlasCache::need_to_reset() const
 
 void PatchAtlasCache::reset(Rhi& rhi)
 {
+	// Keep the textures we're allowed; reallocating a whole atlas just to
+	// pack the same patches into it again is most of the cost of a reset.
+	// Stale texels are never sampled, since only packed regions are.
+	if (atlases_.size() > max_textures_)
+	{
+		// Out of room with the saved atlases taking their slots, so pack into them too
+		thaw();
+	}
+	while (atlases_.size() > max_textures_)
+	{
+		rhi.destroy_texture(atlases_.back().texture());
+		atlases_.pop_back();
+	}
+
 	for (auto& atlas : atlases_)
 	{
-		rhi.destroy_texture(atlas.texture());
+		atlas.clear();
 	}
 
-	atlases_.clear();
 	patch_lookup_.clear();
 }
 
+static Handle<Texture> create_atlas_texture(Rhi& rhi, uint32_t size)
+{
+	return rhi.create_texture(
+		{
+			TextureFormat::kLuminanceAlpha,
+			size,
+			size,
+			TextureWrapMode::kClamp,
+			TextureWrapMode::kClamp
+		}
+	);
+}
+
+void PatchAtlasCache::recreate_textures(Rhi& rhi)
+{
+	for (auto& atlas : atlases_)
+	{
+		atlas.tex_ = create_atlas_texture(rhi, atlas.size_);
+
+		if (atlas.frozen_)
+		{
+			// Validated when it was loaded
+			upload_saved(rhi, atlas);
+			continue;
+		}
+
+		for (auto& [patch, entry] : atlas.entries_)
+		{
+			patches_to_upload_.insert(patch);
+		}
+	}
+}
+
 bool PatchAtlasCache::ready_for_lookup() const
 {
 	if (!patches_to_pack_.empty())
@@ -201,23 +307,18 @@ bool PatchAtlasCache::ready_for_lookup() const
 
 static PatchAtlas create_atlas(Rhi& rhi, uint32_t size)
 {
-	Handle<Texture> texture = rhi.create_texture(
-		{
-			TextureFormat::kLuminanceAlpha,
-			size,
-			size,
-			TextureWrapMode::kClamp,
-			TextureWrapMode::kClamp
-		}
-	);
-
-	PatchAtlas new_atlas(texture, size);
+	PatchAtlas new_atlas(create_atlas_texture(rhi, size), size);
 
 	return new_atlas;
 }
 
 void PatchAtlasCache::pack(Rhi& rhi)
 {
+	if (!patches_to_pack_.empty() && !saved_wads_.empty())
+	{
+		find_saved_patches();
+	}
+
 	// Prepare stbrp rects for patches to be loaded.
 	std::vector<stbrp_rect> rects;
 
@@ -229,10 +330,15 @@ void PatchAtlasCache::pack(Rhi& rhi)
 		patches.push_back(patch);
 	}
 
+	// Trimming walks every column of the patch; do it once per patch
+	std::vector<Rect> trimmed_rects;
+	trimmed_rects.reserve(patches.size());
+
 	for (size_t i = 0; i < patches.size(); i++)
 	{
 		const patch_t* patch = patches[i];
 		Rect trimmed_rect = trimmed_patch_dimensions(patch);
+		trimmed_rects.push_back(trimmed_rect);
 
 		if (rect_is_large(trimmed_rect.w, trimmed_rect.h))
 		{
@@ -258,6 +364,15 @@ void PatchAtlasCache::pack(Rhi& rhi)
 		for (size_t atlas_index = 0; atlas_index < atlases_.size(); atlas_index++)
 		{
 			auto& atlas = atlases_[atlas_index];
+			if (atlas.frozen_)
+			{
+				if (atlas_index == atlases_.size() - 1 && rects.size() > 0)
+				{
+					atlases_.push_back(create_atlas(rhi, tex_size_));
+				}
+				continue;
+			}
+
 			atlas.pack_rects(rects);
 			for (auto itr = rects.begin(); itr != rects.end();)
 			{
@@ -266,7 +381,7 @@ void PatchAtlasCache::pack(Rhi& rhi)
 				{
 					PatchAtlas::Entry entry;
 					const patch_t* patch = patches[rect.id];
-					Rect trimmed_rect = trimmed_patch_dimensions(patch);
+					const Rect& trimmed_rect = trimmed_rects[rect.id];
 					entry.x = static_cast<uint32_t>(rect.x);
 					entry.y = static_cast<uint32_t>(rect.y);
 					entry.w = static_cast<uint32_t>(rect.w);
@@ -278,6 +393,7 @@ void PatchAtlasCache::pack(Rhi& rhi)
 					atlas.entries_.insert_or_assign(patch, std::move(entry));
 					patch_lookup_.insert_or_assign(patch, atlas_index);
 					patches_to_upload_.insert(patch);
+					dirty_ = true;
 					itr = rects.erase(itr);
 					continue;
 				}
@@ -364,3 +480,399 @@ void PatchAtlasCache::queue_patch(srb2::NotNull<const patch_t*> patch)
 
 	patches_to_pack_.insert(patch);
 }
+
+void PatchAtlasCache::thaw()
+{
+	for (auto& atlas : atlases_)
+	{
+		atlas.frozen_ = false;
+		atlas.saved_ = {};
+		atlas.payload_ = {};
+	}
+
+	saved_wads_ = {};
+	saved_wad_index_ = {};
+	dirty_ = true;
+}
+
+void PatchAtlasCache::match_saved_wads()
+{
+	if (saved_wad_index_.size() == saved_wads_.size() && matched_wad_count_ == numwadfiles)
+	{
+		return;
+	}
+
+	saved_wad_index_.clear();
+	saved_wad_index_.resize(saved_wads_.size(), -1);
+	for (UINT16 w = 0; w < numwadfiles; w++)
+	{
+		const wadfile_t* wad = wadfiles[w];
+		const std::string name = wad_file_name(wad);
+		std::optional<uint64_t> directory_hash;
+
+		for (size_t i = 0; i < saved_wads_.size(); i++)
+		{
+			const SavedWad& saved = saved_wads_[i];
+			if (saved_wad_index_[i] >= 0 || saved.size != wad->filesize || saved.name != name)
+			{
+				continue;
+			}
+
+			if (!directory_hash)
+			{
+				directory_hash = wad_directory_hash(wad);
+			}
+			if (saved.directory_hash == *directory_hash)
+			{
+				saved_wad_index_[i] = w;
+				break;
+			}
+		}
+	}
+	matched_wad_count_ = numwadfiles;
+}
+
+void PatchAtlasCache::find_saved_patches()
+{
+	match_saved_wads();
+
+	for (size_t atlas_index = 0; atlas_index < atlases_.size(); atlas_index++)
+	{
+		PatchAtlas& atlas = atlases_[atlas_index];
+		if (!atlas.frozen_)
+		{
+			continue;
+		}
+
+		for (const PatchAtlas::SavedEntry& saved : atlas.saved_)
+		{
+			const int32_t wad = saved_wad_index_[saved.wad];
+			if (wad < 0 || saved.lump >= wadfiles[wad]->numlumps)
+			{
+				continue;
+			}
+
+			// A lump's patch is only in patchcache while it is cached, and the same lump
+			// bytes always make the same patch, so this is the patch that was saved.
+			const patch_t* patch = static_cast<const patch_t*>(wadfiles[wad]->patchcache[saved.lump]);
+			if (patch == nullptr || patch_lookup_.find(patch) != patch_lookup_.end())
+			{
+				continue;
+			}
+			if (static_cast<uint32_t>(patch->width) != saved.entry.orig_w
+				|| static_cast<uint32_t>(patch->height) != saved.entry.orig_h)
+			{
+				continue;
+			}
+
+			atlas.entries_.insert_or_assign(patch, saved.entry);
+			patch_lookup_.insert_or_assign(patch, atlas_index);
+
+			auto queued = patches_to_pack_.find(patch);
+			if (queued != patches_to_pack_.end())
+			{
+				patches_to_pack_.erase(queued);
+			}
+		}
+	}
+}
+
+bool PatchAtlasCache::upload_saved(Rhi& rhi, PatchAtlas& atlas)
+{
+	srb2::Vector<std::byte> pixels;
+	pixels.resize(static_cast<size_t>(atlas.size_) * atlas.size_ * 2);
+
+	uLongf length = pixels.size();
+	int err = uncompress(
+		reinterpret_cast<Bytef*>(pixels.data()),
+		&length,
+		reinterpret_cast<const Bytef*>(atlas.payload_.data()),
+		atlas.payload_.size()
+	);
+	if (err != Z_OK || length != pixels.size())
+	{
+		return false;
+	}
+
+	rhi.update_texture(
+		atlas.tex_,
+		{0, 0, atlas.size_, atlas.size_},
+		PixelFormat::kRG8,
+		tcb::as_bytes(tcb::span(pixels))
+	);
+	return true;
+}
+
+void PatchAtlasCache::load(Rhi& rhi, const std::string& path)
+{
+	SRB2_ASSERT(atlases_.empty());
+
+	srb2::Vector<std::byte> data;
+	try
+	{
+		io::FileStream file {path, io::FileStreamMode::kRead};
+		data = io::read_to_vec(file);
+	}
+	catch (const std::exception&)
+	{
+		// Nothing saved yet
+		return;
+	}
+
+	srb2::Vector<SavedWad> wads;
+	srb2::Vector<PatchAtlas> atlases;
+	try
+	{
+		io::SpanStream in {tcb::make_span(data)};
+
+		std::array<char, 8> magic;
+		io::read_exact(in, tcb::as_writable_bytes(tcb::span(magic)));
+		if (magic != kSavedMagic || io::read_uint32(in) != kSavedVersion || io::read_uint32(in) != tex_size_)
+		{
+			CONS_Debug(DBG_RENDER, "Saved patch atlases are from another version\n");
+			return;
+		}
+
+		const uint32_t wad_count = io::read_uint32(in);
+		for (uint32_t i = 0; i < wad_count; i++)
+		{
+			SavedWad wad;
+			wad.name.resize(io::read_uint16(in));
+			io::read_exact(in, tcb::as_writable_bytes(tcb::span(wad.name.data(), wad.name.size())));
+			wad.size = io::read_uint32(in);
+			wad.directory_hash = io::read_uint64(in);
+			wads.push_back(std::move(wad));
+		}
+
+		// Leave a slot for the patches that weren't saved
+		const uint32_t atlas_count = io::read_uint32(in);
+		for (uint32_t i = 0; i < atlas_count && atlases.size() + 1 < max_textures_; i++)
+		{
+			PatchAtlas atlas(kNullHandle, tex_size_);
+			atlas.frozen_ = true;
+
+			const uint32_t entry_count = io::read_uint32(in);
+			for (uint32_t j = 0; j < entry_count; j++)
+			{
+				PatchAtlas::SavedEntry saved;
+				saved.wad = io::read_uint16(in);
+				saved.lump = io::read_uint16(in);
+				saved.entry.x = io::read_uint32(in);
+				saved.entry.y = io::read_uint32(in);
+				saved.entry.w = io::read_uint32(in);
+				saved.entry.h = io::read_uint32(in);
+				saved.entry.trim_x = io::read_uint32(in);
+				saved.entry.trim_y = io::read_uint32(in);
+				saved.entry.orig_w = io::read_uint32(in);
+				saved.entry.orig_h = io::read_uint32(in);
+				if (saved.wad >= wad_count
+					|| saved.entry.w > tex_size_ || saved.entry.x > tex_size_ - saved.entry.w
+					|| saved.entry.h > tex_size_ || saved.entry.y > tex_size_ - saved.entry.h)
+				{
+					throw std::runtime_error("entry out of range");
+				}
+				atlas.saved_.push_back(saved);
+			}
+
+			atlas.payload_.resize(io::read_uint32(in));
+			io::read_exact(in, tcb::make_span(atlas.payload_));
+			atlases.push_back(std::move(atlas));
+		}
+	}
+	catch (const std::exception& ex)
+	{
+		CONS_Alert(CONS_WARNING, "Ignoring the saved patch atlases: %s\n", ex.what());
+		return;
+	}
+
+	for (auto& atlas : atlases)
+	{
+		atlas.tex_ = create_atlas_texture(rhi, tex_size_);
+		if (!upload_saved(rhi, atlas))
+		{
+			CONS_Alert(CONS_WARNING, "Ignoring a damaged saved patch atlas\n");
+			rhi.destroy_texture(atlas.tex_);
+			continue;
+		}
+		atlases_.push_back(std::move(atlas));
+	}
+
+	if (!atlases_.empty())
+	{
+		saved_wads_ = std::move(wads);
+	}
+}
+
+void PatchAtlasCache::save(const std::string& path)
+{
+	// Entries may point at freed patches until the next reset
+	if (!dirty_ || Patch_WasFreedThisFrame())
+	{
+		return;
+	}
+
+	match_saved_wads();
+
+	// The lump each cached patch was made from; patches that don't come from a
+	// lump (colormapped, rotated, generated) aren't saved
+	srb2::HashMap<const patch_t*, lumpnum_t> lumps;
+	for (UINT16 w = 0; w < numwadfiles; w++)
+	{
+		for (UINT16 l = 0; l < wadfiles[w]->numlumps; l++)
+		{
+			const patch_t* patch = static_cast<const patch_t*>(wadfiles[w]->patchcache[l]);
+			if (patch != nullptr)
+			{
+				lumps.insert_or_assign(patch, (static_cast<lumpnum_t>(w) << 16) | l);
+			}
+		}
+	}
+
+	io::VecStream out;
+	io::write_exact(out, tcb::as_bytes(tcb::span(kSavedMagic)));
+	io::write(kSavedVersion, out);
+	io::write(tex_size_, out);
+
+	// Lump keys below index this table, which is wadfiles as it is now
+	io::write(static_cast<uint32_t>(numwadfiles), out);
+	for (UINT16 w = 0; w < numwadfiles; w++)
+	{
+		const std::string name = wad_file_name(wadfiles[w]);
+		io::write(static_cast<uint16_t>(name.size()), out);
+		io::write_exact(out, tcb::as_bytes(tcb::span(name.data(), name.size())));
+		io::write(static_cast<uint32_t>(wadfiles[w]->filesize), out);
+		io::write(wad_directory_hash(wadfiles[w]), out);
+	}
+
+	// Which atlases get saved, and what is in them
+	srb2::Vector<const PatchAtlas*> saved_atlases;
+	srb2::Vector<srb2::Vector<PatchAtlas::SavedEntry>> saved_entries;
+	for (const auto& atlas : atlases_)
+	{
+		if (saved_atlases.size() + 1 >= max_textures_)
+		{
+			break;
+		}
+
+		srb2::Vector<PatchAtlas::SavedEntry> entries;
+		if (atlas.frozen_)
+		{
+			for (PatchAtlas::SavedEntry saved : atlas.saved_)
+			{
+				const int32_t wad = saved_wad_index_[saved.wad];
+				if (wad >= 0)
+				{
+					saved.wad = static_cast<uint16_t>(wad);
+					entries.push_back(saved);
+				}
+			}
+		}
+		else
+		{
+			for (auto& [patch, entry] : atlas.entries_)
+			{
+				auto lump = lumps.find(patch);
+				if (lump != lumps.end())
+				{
+					entries.push_back({WADFILENUM(lump->second), LUMPNUM(lump->second), entry});
+				}
+			}
+		}
+
+		if (!entries.empty())
+		{
+			saved_atlases.push_back(&atlas);
+			saved_entries.push_back(std::move(entries));
+		}
+	}
+
+	io::write(static_cast<uint32_t>(saved_atlases.size()), out);
+
+	srb2::Vector<std::byte> pixels;
+	srb2::Vector<uint8_t> patch_data;
+	srb2::Vector<std::byte> payload;
+	for (size_t i = 0; i < saved_atlases.size(); i++)
+	{
+		const PatchAtlas& atlas = *saved_atlases[i];
+		const srb2::Vector<PatchAtlas::SavedEntry>& entries = saved_entries[i];
+
+		io::write(static_cast<uint32_t>(entries.size()), out);
+		for (const PatchAtlas::SavedEntry& saved : entries)
+		{
+			io::write(saved.wad, out);
+			io::write(saved.lump, out);
+			io::write(saved.entry.x, out);
+			io::write(saved.entry.y, out);
+			io::write(saved.entry.w, out);
+			io::write(saved.entry.h, out);
+			io::write(saved.entry.trim_x, out);
+			io::write(saved.entry.trim_y, out);
+			io::write(saved.entry.orig_w, out);
+			io::write(saved.entry.orig_h, out);
+		}
+
+		if (atlas.frozen_)
+		{
+			// Its texels haven't changed since they were read
+			io::write(static_cast<uint32_t>(atlas.payload_.size()), out);
+			io::write_exact(out, tcb::make_span(atlas.payload_));
+			continue;
+		}
+
+		// The texture can't be read back, so convert its patches again on the CPU
+		pixels.clear();
+		pixels.resize(static_cast<size_t>(atlas.size_) * atlas.size_ * 2, std::byte {0});
+		for (const PatchAtlas::SavedEntry& saved : entries)
+		{
+			const patch_t* patch = static_cast<const patch_t*>(wadfiles[saved.wad]->patchcache[saved.lump]);
+			convert_patch_to_trimmed_rg8_pixels(patch, patch_data);
+
+			// Odd widths were padded by a column
+			const size_t stride = (saved.entry.w + saved.entry.w % 2) * 2;
+			for (uint32_t row = 0; row < saved.entry.h; row++)
+			{
+				std::memcpy(
+					&pixels[((static_cast<size_t>(saved.entry.y) + row) * atlas.size_ + saved.entry.x) * 2],
+					&patch_data[row * stride],
+					saved.entry.w * 2
+				);
+			}
+		}
+
+		uLongf length = compressBound(pixels.size());
+		payload.resize(length);
+		int err = compress2(
+			reinterpret_cast<Bytef*>(payload.data()),
+			&length,
+			reinterpret_cast<const Bytef*>(pixels.data()),
+			pixels.size(),
+			Z_BEST_SPEED
+		);
+		if (err != Z_OK)
+		{
+			CONS_Alert(CONS_WARNING, "Couldn't compress the patch atlases\n");
+			return;
+		}
+
+		io::write(static_cast<uint32_t>(length), out);
+		io::write_exact(out, tcb::span<const std::byte>(payload.data(), length));
+	}
+
+	// Written aside and moved over, so a kill mid-write leaves the old file
+	const std::string temp_path = path + ".tmp";
+	try
+	{
+		{
+			io::FileStream file {temp_path, io::FileStreamMode::kWrite};
+			io::write_exact(file, tcb::make_span(out.vector()));
+		}
+		std::filesystem::rename(temp_path, path);
+	}
+	catch (const std::exception& ex)
+	{
+		CONS_Alert(CONS_WARNING, "Couldn't save the patch atlases: %s\n", ex.what());
+		return;
+	}
+
+	dirty_ = false;
+}
@@ -14,6 +14,7 @@
 #include <cstdint>
 #include <memory>
 #include <optional>
+#include <string>
 
 #include <tcb/span.hpp>
 
@@ -60,6 +61,19 @@ private:
 	std::unique_ptr<stbrp_context> rp_ctx {nullptr};
 	std::unique_ptr<stbrp_node[]> rp_nodes {nullptr};
 
+	/// @brief A packed patch in an atlas read from disk, known by the lump it was made from.
+	struct SavedEntry
+	{
+		uint16_t wad;
+		uint16_t lump;
+		Entry entry;
+	};
+
+	// Atlases read from disk are never packed into; their patches are found by lump instead.
+	bool frozen_ = false;
+	srb2::Vector<SavedEntry> saved_;
+	srb2::Vector<std::byte> payload_; // zlib-deflated RG8 texels of the whole atlas
+
 	friend class PatchAtlasCache;
 
 public:
@@ -77,6 +91,9 @@ public:
 	std::optional<Entry> find_patch(srb2::NotNull<const patch_t*> patch) const;
 
 	void pack_rects(tcb::span<stbrp_rect> rects);
+
+	/// @brief Forget every packed patch, keeping the texture to pack into again.
+	void clear();
 };
 
 /// @brief A resource-managing pass which creates and manages a set of Atlas Textures with
@@ -93,8 +110,26 @@ class PatchAtlasCache
 	uint32_t tex_size_ = 2048;
 	size_t max_textures_ = 2;
 
+	/// @brief A wad the lump keys of the disk cache refer to.
+	struct SavedWad
+	{
+		std::string name;
+		uint32_t size;
+		uint64_t directory_hash;
+	};
+
+	srb2::Vector<SavedWad> saved_wads_;
+	srb2::Vector<int32_t> saved_wad_index_; // into wadfiles, -1 if it isn't loaded
+	size_t matched_wad_count_ = 0;
+	bool dirty_ = false;
+
 	bool ready_for_lookup() const;
 
+	void match_saved_wads();
+	void find_saved_patches();
+	bool upload_saved(rhi::Rhi& rhi, PatchAtlas& atlas);
+	void thaw();
+
 	/// @brief Decide if a rect's dimensions are Large, that is, the rect should not be packed and instead its patch
 	/// should be uploaded in isolation.
 	bool rect_is_large(uint32_t w, uint32_t h) const noexcept { return false; }
@@ -123,8 +158,21 @@ public:
 
 	bool need_to_reset() const;
 
-	/// @brief Clear the atlases and reset for lookup.
+	/// @brief Clear the atlases and reset for lookup. Atlas textures are kept to be packed into again.
 	void reset(rhi::Rhi& rhi);
+
+	/// @brief Create the atlas textures again on a new RHI, keeping the packed layout; every
+	/// packed patch is uploaded again by the next pack without repacking anything.
+	void recreate_textures(rhi::Rhi& rhi);
+
+	/// @brief Read atlases written by save() and upload them as they are. Their patches are
+	/// found by wad and lump as those get cached, so they are never converted or packed.
+	/// Must be called on an empty cache; a missing or stale file just leaves it empty.
+	void load(rhi::Rhi& rhi, const std::string& path);
+
+	/// @brief Write the packed atlases, with the lumps of their patches, for load() on a
+	/// later launch. Does nothing if nothing was packed since the last load or save.
+	void save(const std::string& path);
 };
 
 /// @brief Calculate the subregion of the patch which excludes empty space on the borders.
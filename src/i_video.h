@@ -30,6 +30,9 @@ rhi::Rhi* get_rhi(rhi::Handle<rhi::Rhi> handle);
 
 hwr2::HardwareState* main_hardware_state();
 
+/// @brief Save the packed patch atlases for the next launch to start from.
+void save_patch_atlas_cache();
+
 } // namespace srb2::sys
 
 extern "C" {
@@ -170,6 +173,14 @@ UINT32 I_GetRefreshRate(void);
 
 void I_CaptureVideoFrame(void);
 
+#ifdef ANDROID
+/**	\brief Follow the dynamic resolution scale (android_dynres.h) with the
+	video mode, keeping the chosen mode's shape. Mode changes are requested
+	for the next display, and while in a level only to go down.
+*/
+void I_UpdateDynamicResolution(void);
+#endif
+
 #ifdef __cplusplus
 } // extern "C"
 #endif
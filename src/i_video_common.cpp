@@ -12,6 +12,7 @@
 
 #include <algorithm>
 #include <array>
+#include <string>
 #include <vector>
 
 #include <imgui.h>
@@ -19,6 +20,7 @@
 
 #include "command.h"
 #include "cxxutil.hpp"
+#include "d_main.h"
 #include "f_finale.h"
 #include "m_fixed.h"
 #include "m_misc.h"
@@ -65,14 +67,40 @@ static bool rhi_changed(Rhi* rhi)
 	return g_last_known_rhi != rhi;
 }
 
+static std::string patch_atlas_cache_path()
+{
+	return std::string(srb2home) + PATHSEP + "patchatlas.cache";
+}
+
 static void reset_hardware_state(Rhi* rhi)
 {
+	// The packed atlas layout doesn't depend on the RHI, so an RHI that has been replaced (the GL context was
+	// lost in the background on Android) gets the same atlases back without repacking a single patch.
+	std::unique_ptr<PatchAtlasCache> patch_atlas_cache = std::move(g_hw_state.patch_atlas_cache);
+	if (patch_atlas_cache && Patch_WasFreedThisFrame())
+	{
+		// Some of its patches may be gone
+		patch_atlas_cache = nullptr;
+	}
+
 	// The lifetime of objects pointed to by RHI Handles is determined by the RHI itself, so it is enough to simply
 	// "forget" about the resources previously known.
 	g_hw_state = HardwareState {};
 	g_hw_state.palette_manager = std::make_unique<PaletteManager>();
 	g_hw_state.flat_manager = std::make_unique<FlatTextureManager>();
-	g_hw_state.patch_atlas_cache = std::make_unique<PatchAtlasCache>(2048, 3);
+	if (patch_atlas_cache)
+	{
+		patch_atlas_cache->recreate_textures(*rhi);
+		g_hw_state.patch_atlas_cache = std::move(patch_atlas_cache);
+	}
+	else
+	{
+		g_hw_state.patch_atlas_cache = std::make_unique<PatchAtlasCache>(2048, 3);
+#ifdef ANDROID
+		// Start from the atlases the last run packed, rather than converting and packing every patch again
+		g_hw_state.patch_atlas_cache->load(*rhi, patch_atlas_cache_path());
+#endif
+	}
 	g_hw_state.twodee_renderer = std::make_unique<TwodeeRenderer>(
 		g_hw_state.palette_manager.get(),
 		g_hw_state.flat_manager.get(),
@@ -199,6 +227,14 @@ HardwareState* sys::main_hardware_state()
 	return &g_hw_state;
 }
 
+void sys::save_patch_atlas_cache()
+{
+	if (g_hw_state.patch_atlas_cache)
+	{
+		g_hw_state.patch_atlas_cache->save(patch_atlas_cache_path());
+	}
+}
+
 void I_CaptureVideoFrame()
 {
 	rhi::Rhi* rhi = srb2::sys::get_rhi(srb2::sys::g_current_rhi);
@@ -65,6 +65,10 @@
 #include "hardware/hw_main.h"
 #endif
 
+#ifdef ANDROID
+#include "android_assets.h"
+#endif
+
 #ifdef HAVE_SDL
 #include "sdl/hwsym_sdl.h"
 #ifdef __linux__
@@ -364,6 +368,10 @@ boolean FIL_RenameFile(char const *old_name, char const *new_name)
   */
 boolean FIL_FileExists(char const *name)
 {
+#ifdef ANDROID
+	if (AndroidAssets_Exists(name))
+		return true;
+#endif
 	return access(name,0)+1; //F_OK
 }
 
@@ -386,6 +394,10 @@ boolean FIL_WriteFileOK(char const *name)
   */
 boolean FIL_ReadFileOK(char const *name)
 {
+#ifdef ANDROID
+	if (AndroidAssets_Exists(name))
+		return true;
+#endif
 	return access(name,4)+1; //R_OK
 }
 
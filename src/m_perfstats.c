@@ -25,6 +25,10 @@
 #include "hardware/hw_main.h"
 #endif
 
+#ifdef ANDROID
+#include "android_input.h"
+#endif
+
 struct perfstatcol;
 struct perfstatrow;
 
@@ -163,6 +167,42 @@ static void M_DrawPerfCount(perfstatcol_t *col)
 	M_DrawPerfString(col, PERF_COUNT);
 }
 
+#ifdef ANDROID
+// Touch input latency, p50/p95/p99 in microseconds since launch.
+static void M_DrawInputLatencyStats(void)
+{
+	static const char *labels[ANDROID_LATENCY_NUM_STAGES][2] = {
+		{"tch>que", "Touch->queue:  "},
+		{"que>evt", "Queue->event:  "},
+		{"evt>tic", "Event->tic:    "},
+	};
+
+	const boolean hires = M_HighResolution();
+	const INT32 draw_flags = V_MONOSPACE | V_GREENMAP;
+	int i;
+
+	for (i = 0; i < ANDROID_LATENCY_NUM_STAGES; i++)
+	{
+		AndroidLatencySummary s;
+		const char *text;
+
+		AndroidInput_GetLatency(i, &s);
+		text = va("%s %d/%d/%d", labels[i][hires], s.p50_us, s.p95_us, s.p99_us);
+
+		if (hires)
+		{
+			V_DrawSmallString(20, draw_row, draw_flags, text);
+			draw_row += 5;
+		}
+		else
+		{
+			V_DrawThinString(20, draw_row, draw_flags, text);
+			draw_row += 8;
+		}
+	}
+}
+#endif
+
 static void M_DrawRenderStats(void)
 {
 	const boolean hires = M_HighResolution();
@@ -181,6 +221,7 @@ static void M_DrawRenderStats(void)
 		{0}
 	};
 
+#ifdef HWRENDER
 	perfstatrow_t opengltime_row[] = {
 		{"skybox ", "Skybox render: ", &ps_hw_skyboxtime},
 		{"bsptime", "RenderBSPNode: ", &ps_bsptime},
@@ -191,6 +232,7 @@ static void M_DrawRenderStats(void)
 		{"other  ", "Other:         ", &extrarendertime},
 		{0}
 	};
+#endif
 
 	perfstatrow_t softwaretime_row[] = {
 		{"bsptime", "RenderBSPNode: ", &ps_bsptime},
@@ -222,6 +264,7 @@ static void M_DrawRenderStats(void)
 		{0}
 	};
 
+#ifdef HWRENDER
 	perfstatrow_t batchtime_row[] = {
 		{"batsort", "Batch sort:  ", &ps_hw_batchsorttime},
 		{"batdraw", "Batch render:", &ps_hw_batchdrawtime},
@@ -242,11 +285,14 @@ static void M_DrawRenderStats(void)
 		{"colors ", "Colors:    ", &ps_hw_numcolors},
 		{0}
 	};
+#endif
 
 	perfstatcol_t      frametime_col =  {20,  20, V_YELLOWMAP,      frametime_row};
 	perfstatcol_t rendercalltime_col =  {20,  20, V_YELLOWMAP, rendercalltime_row};
 
+#ifdef HWRENDER
 	perfstatcol_t     opengltime_col =  {24,  24, V_YELLOWMAP,     opengltime_row};
+#endif
 	perfstatcol_t   softwaretime_col =  {24,  24, V_YELLOWMAP,   softwaretime_row};
 
 	perfstatcol_t     uiswaptime_col =  {20,  20, V_YELLOWMAP,     uiswaptime_row};
@@ -254,10 +300,12 @@ static void M_DrawRenderStats(void)
 
 	perfstatcol_t    rendercalls_col =  {90, 115, V_BLUEMAP,      rendercalls_row};
 
+#ifdef HWRENDER
 	perfstatcol_t      batchtime_col =  {90, 115, V_REDMAP,         batchtime_row};
 
 	perfstatcol_t     batchcount_col = {155, 200, V_PURPLEMAP,     batchcount_row};
 	perfstatcol_t     batchcalls_col = {220, 200, V_PURPLEMAP,     batchcalls_row};
+#endif
 
 
 	boolean rendering = G_GamestateUsesLevel();
@@ -309,6 +357,11 @@ static void M_DrawRenderStats(void)
 	draw_row += half_row;
 	M_DrawPerfTiming(&tictime_col);
 
+#ifdef ANDROID
+	draw_row += half_row;
+	M_DrawInputLatencyStats();
+#endif
+
 	if (rendering)
 	{
 		draw_row = 10;
@@ -15,6 +15,7 @@
 
 #include "r_fps.h"
 
+#include <algorithm>
 #include <vector>
 
 #include "p_mobj.h"
@@ -26,8 +27,14 @@
 #include "z_zone.h"
 #include "i_time.h"
 
+#ifdef ANDROID
+#include "android_frame.h"
+#endif
+
 UINT32 R_GetFramerateCap(void)
 {
+	UINT32 cap;
+
 	if (rendermode == render_none)
 	{
 		// If we're not rendering (dedicated server),
@@ -38,16 +45,36 @@ UINT32 R_GetFramerateCap(void)
 	if (cv_fpscap.value == 0)
 	{
 		// 0: Match refresh rate
-		return I_GetRefreshRate();
+		cap = I_GetRefreshRate();
 	}
-
-	if (cv_fpscap.value < 0)
+	else if (cv_fpscap.value < 0)
 	{
 		// -1: Unlimited
-		return 0;
+		cap = 0;
+	}
+	else
+	{
+		cap = cv_fpscap.value;
 	}
 
-	return cv_fpscap.value;
+#ifdef ANDROID
+	{
+		// Battery saver or thermal throttling asked for fewer frames.
+		// Never below the tic rate, or interpolation would drop tics.
+		UINT32 throttle = AndroidFrame_ThrottleRate();
+		if (throttle != 0)
+		{
+			throttle = std::max<UINT32>(throttle, TICRATE);
+			if (cap == 0 || cap > throttle)
+				cap = throttle;
+		}
+	}
+
+	// FramePacer asks the display for this while throttled
+	AndroidFrame_SetEngineRate(cap);
+#endif
+
+	return cap;
 }
 
 boolean R_UsingFrameInterpolation(void)
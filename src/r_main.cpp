@@ -617,6 +617,8 @@ static struct viewmorph {
 	INT16 ceilingclip[MAXVIDWIDTH], floorclip[MAXVIDWIDTH];
 
 	boolean use;
+
+	float rollcos, rollsin; // divided by the zoom, for rotating on the GPU
 } viewmorph[MAXSPLITSCREENPLAYERS] = {
 	AHHHH_IM_SO_MAAAAD,
 	AHHHH_IM_SO_MAAAAD,
@@ -701,9 +703,11 @@ void R_CheckViewMorph(int s)
 
 	if (v->scrmapsize != width * height)
 	{
+#ifndef NOPOSTPROCESSING
 		if (v->scrmap)
 			free(v->scrmap);
 		v->scrmap = static_cast<INT32*>(malloc(width * height * sizeof(INT32)));
+#endif
 		v->scrmapsize = width * height;
 	}
 
@@ -761,6 +765,9 @@ void R_CheckViewMorph(int s)
 	rollcos /= zoomfactor;
 	rollsin /= zoomfactor;
 
+	v->rollcos = rollcos;
+	v->rollsin = rollsin;
+
 	x1 = -(halfwidth * rollcos - halfheight * rollsin);
 	y1 = -(halfheight * rollcos + halfwidth * rollsin);
 
@@ -815,6 +822,13 @@ void R_CheckViewMorph(int s)
 
 	//CONS_Printf("Top left corner is %f %f\n", x1, y1);
 
+#ifdef NOPOSTPROCESSING
+	// No scratch screen to remap into; the blit to the display
+	// rotates the view instead (see R_GetViewMorphRotation)
+	v->use = true;
+	return;
+#endif
+
 #ifdef WOUGHMP_WOUGHMP
 	if (fisheye)
 	{
@@ -876,8 +890,21 @@ void R_CheckViewMorph(int s)
 	v->use = true;
 }
 
+boolean R_GetViewMorphRotation(int s, float *rollcos, float *rollsin)
+{
+	if (!viewmorph[s].use)
+		return false;
+
+	*rollcos = viewmorph[s].rollcos;
+	*rollsin = viewmorph[s].rollsin;
+	return true;
+}
+
 void R_ApplyViewMorph(int s)
 {
+#ifdef NOPOSTPROCESSING
+	(void)s;
+#else
 	UINT8 *tmpscr = screens[4];
 	UINT8 *srcscr = screens[0];
 	INT32 width = vid.width;
@@ -922,6 +949,7 @@ void R_ApplyViewMorph(int s)
 
 	VID_BlitLinearScreen(tmpscr, srcscr,
 			width*vid.bpp, height, width*vid.bpp, vid.width);
+#endif
 }
 
 angle_t R_ViewRollAngle(const player_t *player, UINT8 viewnum)
@@ -173,6 +173,9 @@ void R_Init(void);
 
 void R_CheckViewMorph(int split);
 void R_ApplyViewMorph(int split);
+// Rotation (already divided by the zoom) for a view being rolled, in the
+// view's own pixel space; false when the view isn't rolled
+boolean R_GetViewMorphRotation(int split, float *rollcos, float *rollsin);
 angle_t R_ViewRollAngle(const player_t *player, UINT8 viewnum);
 
 // just sets setsizeneeded true
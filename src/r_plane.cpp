@@ -273,16 +273,15 @@ static void R_MapTiltedPlane(drawspandata_t *ds, void(*spanfunc)(drawspandata_t*
 
 void R_ClearFFloorClips (void)
 {
-	INT32 i, p;
+	INT32 p;
 
 	// opening / clipping determination
-	for (i = 0; i < viewwidth; i++)
+	// One array at a time, so each fill is a contiguous run the compiler
+	// turns into wide vector stores
+	for (p = 0; p < MAXFFLOORS; p++)
 	{
-		for (p = 0; p < MAXFFLOORS; p++)
-		{
-			ffloor[p].f_clip[i] = (INT16)viewheight;
-			ffloor[p].c_clip[i] = -1;
-		}
+		std::fill_n(ffloor[p].f_clip, viewwidth, (INT16)viewheight);
+		std::fill_n(ffloor[p].c_clip, viewwidth, (INT16)-1);
 	}
 
 	numffloors = 0;
@@ -297,16 +296,13 @@ void R_ClearPlanes(void)
 	INT32 i, p;
 
 	// opening / clipping determination
-	for (i = 0; i < viewwidth; i++)
+	std::fill_n(floorclip, viewwidth, (INT16)viewheight);
+	std::fill_n(ceilingclip, viewwidth, (INT16)-1);
+	std::fill_n(frontscale, viewwidth, INT32_MAX);
+	for (p = 0; p < MAXFFLOORS; p++)
 	{
-		floorclip[i] = (INT16)viewheight;
-		ceilingclip[i] = -1;
-		frontscale[i] = INT32_MAX;
-		for (p = 0; p < MAXFFLOORS; p++)
-		{
-			ffloor[p].f_clip[i] = (INT16)viewheight;
-			ffloor[p].c_clip[i] = -1;
-		}
+		std::fill_n(ffloor[p].f_clip, viewwidth, (INT16)viewheight);
+		std::fill_n(ffloor[p].c_clip, viewwidth, (INT16)-1);
 	}
 
 	for (i = 0; i < MAXVISPLANES; i++)
@@ -1378,7 +1378,37 @@ UINT32 nombre = 100000;
 #endif
 //profile stuff ---------------------------------------------------------
 
-static void R_DrawWallColumn(drawcolumndata_t* dc, INT32 yl, INT32 yh, fixed_t mid, fixed_t texturecolumn, INT32 texture, boolean brightmapped, boolean remap)
+// Tune concurrency granularity here to maximize throughput
+// A batch is copied into the task itself, so it has to fit in a task's
+// inline storage; that leaves room for three columns
+constexpr const int kWallTaskColumns = 3;
+
+struct WallColumnBatch
+{
+	coldrawfunc_t* funcs[kWallTaskColumns];
+	drawcolumndata_t dcs[kWallTaskColumns];
+	INT32 count;
+};
+
+static WallColumnBatch wallbatch;
+
+static void R_FlushWallColumns(void)
+{
+	if (wallbatch.count == 0)
+	{
+		return;
+	}
+
+	srb2::g_main_threadpool->schedule([batch = wallbatch]() mutable -> void {
+		for (INT32 i = 0; i < batch.count; i++)
+		{
+			batch.funcs[i](&batch.dcs[i]);
+		}
+	});
+	wallbatch.count = 0;
+}
+
+static void R_DrawWallColumn(drawcolumndata_t* dc, INT32 yl, INT32 yh, fixed_t mid, fixed_t texturecolumn, INT32 texture, boolean brightmapped, boolean remap, boolean allow_parallel)
 {
 	dc->yl = yl;
 	dc->yh = yh;
@@ -1395,6 +1425,20 @@ static void R_DrawWallColumn(drawcolumndata_t* dc, INT32 yl, INT32 yh, fixed_t m
 		dc_copy.colormap += COLORMAP_REMAPOFFSET;
 		dc_copy.fullbright += COLORMAP_REMAPOFFSET;
 	}
+
+	// Shadowed columns read the light list, which the seg loop steps
+	// for every column; those have to be drawn before it moves on
+	if (allow_parallel && dc->numlights == 0)
+	{
+		wallbatch.funcs[wallbatch.count] = colfunccopy;
+		wallbatch.dcs[wallbatch.count] = dc_copy;
+		if (++wallbatch.count == kWallTaskColumns)
+		{
+			R_FlushWallColumns();
+		}
+		return;
+	}
+
 	colfunccopy(const_cast<drawcolumndata_t*>(&dc_copy));
 }
 
@@ -1412,6 +1456,11 @@ static void R_RenderSegLoop (drawcolumndata_t* dc)
 	INT32     bottom;
 	INT32     i;
 
+	// Wall columns never overlap each other or the planes, so they can be
+	// drawn on the pool while the BSP walk carries on; R_RenderPlayerView
+	// waits for them along with the planes
+	const boolean allow_parallel = cv_parallelsoftware.value;
+
 	for (; rw_x < rw_stopx; rw_x++)
 	{
 		// mark floor / ceiling areas
@@ -1665,7 +1714,7 @@ static void R_RenderSegLoop (drawcolumndata_t* dc)
 			// single sided line
 			if (yl <= yh && yh >= 0 && yl < viewheight)
 			{
-				R_DrawWallColumn(dc, yl, yh, rw_midtexturemid, texturecolumn, midtexture, midbrightmapped, midremap);
+				R_DrawWallColumn(dc, yl, yh, rw_midtexturemid, texturecolumn, midtexture, midbrightmapped, midremap, allow_parallel);
 
 				// dont draw anything more for this column, since
 				// a midtexture blocks the view
@@ -1704,7 +1753,7 @@ static void R_RenderSegLoop (drawcolumndata_t* dc)
 					}
 					else if (mid >= 0) // safe to draw top texture
 					{
-						R_DrawWallColumn(dc, yl, mid, rw_toptexturemid, texturecolumn, toptexture, topbrightmapped, topremap);
+						R_DrawWallColumn(dc, yl, mid, rw_toptexturemid, texturecolumn, toptexture, topbrightmapped, topremap, allow_parallel);
 						ceilingclip[rw_x] = (INT16)mid;
 					}
 					else if (!rw_ceilingmarked) // entirely off top of screen
@@ -1735,7 +1784,7 @@ static void R_RenderSegLoop (drawcolumndata_t* dc)
 					}
 					else if (mid < viewheight) // safe to draw bottom texture
 					{
-						R_DrawWallColumn(dc, mid, yh, rw_bottomtexturemid, texturecolumn, bottomtexture, bottombrightmapped, bottomremap);
+						R_DrawWallColumn(dc, mid, yh, rw_bottomtexturemid, texturecolumn, bottomtexture, bottombrightmapped, bottomremap, allow_parallel);
 						floorclip[rw_x] = (INT16)mid;
 					}
 					else if (!rw_floormarked)  // entirely off bottom of screen
@@ -1792,6 +1841,13 @@ static void R_RenderSegLoop (drawcolumndata_t* dc)
 		topfrac += topstep;
 		bottomfrac += bottomstep;
 	}
+
+	if (allow_parallel)
+	{
+		// Wake the workers now rather than at the end of the BSP walk
+		R_FlushWallColumns();
+		srb2::g_main_threadpool->notify();
+	}
 }
 
 // Uses precalculated seg->length
@@ -204,6 +204,11 @@ static char returnWadPath[256];
 
 #include "../d_main.h"
 
+#ifdef ANDROID
+#include "android_haptics.h"
+#include "touch_input.h"
+#endif
+
 #if !defined(NOMUMBLE) && defined(HAVE_MUMBLE)
 // Mumble context string
 #include "../d_clisrv.h"
@@ -1334,6 +1339,14 @@ void I_GetGamepadName(INT32 device_id, char *out, int out_len)
 	I_Assert(out != NULL);
 	I_Assert(out_len > 0);
 
+#ifdef ANDROID
+	if (device_id == TOUCH_INPUT_DEVICE)
+	{
+		strlcpy(out, "Touch Controls", out_len);
+		return;
+	}
+#endif
+
 	controller = SDL_GameControllerFromInstanceID(device_id - 1);
 	if (controller == NULL)
 	{
@@ -1356,6 +1369,14 @@ void I_GamepadRumble(INT32 device_id, UINT16 low_strength, UINT16 high_strength)
 #else
 	I_Assert(device_id > 0); // Gamepad devices are always ID 1 or higher
 
+#ifdef ANDROID
+	if (device_id == TOUCH_INPUT_DEVICE)
+	{
+		AndroidHaptics_Rumble(low_strength, high_strength);
+		return;
+	}
+#endif
+
 	SDL_GameController *controller = SDL_GameControllerFromInstanceID(device_id - 1);
 	if (controller == NULL)
 	{
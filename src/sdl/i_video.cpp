@@ -15,6 +15,7 @@
 #include <SDL_video.h>
 #include <stdlib.h>
 #include <errno.h>
+#include <algorithm>
 #include <memory>
 
 #include <signal.h>
@@ -98,6 +99,13 @@
 #include "../discord.h"
 #endif
 
+#ifdef ANDROID
+#include "android_dynres.h"
+#include "android_frame.h"
+#include "android_input.h"
+#include "touch_input.h"
+#endif
+
 // maximum number of windowed modes (see windowedModes[][])
 #define MAXWINMODES (19)
 
@@ -967,6 +975,94 @@ bool ImGui_ImplSDL2_ProcessEvent(const SDL_Event* event)
 	return false;
 }
 
+#ifdef ANDROID
+// Touch controls are a virtual gamepad, TOUCH_INPUT_DEVICE. Records from
+// the shared ring are posted as that device's button and axis events, so
+// the responders (title screen, intro, menus) see touch like any other
+// gamepad, and it can be assigned to any splitscreen player. The device
+// added event is posted first, so it exists by the time these are handled.
+static boolean touch_device_added = false;
+
+// Stick records come at touch rate; only the latest value of each axis is
+// posted per drain, so a long stall can't overrun the event queue
+static INT32 touch_axes[JOYANALOGS * 2];
+static UINT32 touch_axes_changed = 0;
+
+static void Impl_HandleAndroidInput(const AndroidInputRecord *rec, void *userdata)
+{
+	event_t event {};
+	INT32 value;
+
+	(void)userdata;
+
+	if (rec->type == ANDROID_INPUT_CONTROL)
+	{
+		event.type = rec->value.i ? ev_keydown : ev_keyup;
+		event.device = TOUCH_INPUT_DEVICE;
+		event.data1 = TouchInput_GamepadInput(rec->code);
+		if (event.data1 == 0)
+			return;
+
+		D_PostEvent(&event);
+	}
+	else if (rec->type == ANDROID_INPUT_AXIS && rec->code < JOYANALOGS * 2)
+	{
+		value = (INT32)(rec->value.f * JOYAXISRANGE);
+		touch_axes[rec->code] = std::clamp(value, -JOYAXISRANGE, JOYAXISRANGE);
+		touch_axes_changed |= 1u << rec->code;
+	}
+}
+
+static void Impl_PostAndroidAxes(void)
+{
+	event_t event {};
+	INT32 i;
+
+	event.type = ev_gamepad_axis;
+	event.device = TOUCH_INPUT_DEVICE;
+
+	// Same numbering as SDL's axes: x then y of each stick
+	for (i = 0; i < JOYANALOGS; i++)
+	{
+		if (!(touch_axes_changed & (3u << (i * 2))))
+			continue;
+
+		event.data1 = i;
+		event.data2 = (touch_axes_changed & (1u << (i * 2))) ? touch_axes[i * 2] : INT32_MAX;
+		event.data3 = (touch_axes_changed & (2u << (i * 2))) ? touch_axes[i * 2 + 1] : INT32_MAX;
+		D_PostEvent(&event);
+	}
+
+	touch_axes_changed = 0;
+}
+
+// Android may throw our GL context away while the app is in the
+// background. SDL makes a new one on resume and tells us with a render
+// device reset; every RHI handle died with the old context, so start a
+// new RHI on the new one. I_StartDisplayUpdate sees the change and
+// rebuilds the hardware state, keeping the packed patch atlases; it's
+// called straight away, since this frame's pass began on the old RHI.
+static void Impl_HandleRenderDeviceReset(void)
+{
+	if (!g_rhi)
+	{
+		return;
+	}
+
+	CONS_Debug(DBG_RENDER, "GL context lost; recreating the RHI\n");
+
+	sdlglcontext = SDL_GL_GetCurrentContext();
+	SDL_GL_SetSwapInterval(cv_vidwait.value ? 1 : 0);
+
+	std::unique_ptr<rhi::SdlGl2Platform> platform = std::make_unique<rhi::SdlGl2Platform>();
+	platform->window = window;
+	g_rhi = std::make_unique<rhi::Gl2Rhi>(std::move(platform), reinterpret_cast<rhi::GlLoadFunc>(SDL_GL_GetProcAddress));
+	g_rhi_generation += 1;
+
+	I_StartDisplayUpdate();
+}
+#endif
+
 void I_GetEvent(void)
 {
 	SDL_Event evt;
@@ -984,8 +1080,40 @@ void I_GetEvent(void)
 
 	ImGuiIO& io = ImGui::GetIO();
 
+#ifdef ANDROID
+	if (!touch_device_added)
+	{
+		event_t engine_event {};
+
+		engine_event.type = ev_gamepad_device_added;
+		engine_event.device = TOUCH_INPUT_DEVICE;
+
+		D_PostEvent(&engine_event);
+		touch_device_added = true;
+	}
+
+	// Drained even while ImGui has the keyboard: touch is never typed into it,
+	// and a dropped release would leave its control held down
+	AndroidInput_Drain(Impl_HandleAndroidInput, NULL);
+	Impl_PostAndroidAxes();
+#endif
+
 	while (SDL_PollEvent(&evt))
 	{
+#ifdef ANDROID
+		if (evt.type == SDL_RENDER_DEVICE_RESET)
+		{
+			Impl_HandleRenderDeviceReset();
+			continue;
+		}
+		if (evt.type == SDL_APP_DIDENTERBACKGROUND)
+		{
+			// The last chance we're sure to get; a backgrounded app is killed without warning
+			srb2::sys::save_patch_atlas_cache();
+			continue;
+		}
+#endif
+
 		ImGui_ImplSDL2_ProcessEvent(&evt);
 		if (io.WantCaptureMouse || io.WantCaptureKeyboard)
 		{
@@ -1474,6 +1602,70 @@ INT32 VID_SetMode(INT32 modeNum)
 	return SDL_TRUE;
 }
 
+#ifdef ANDROID
+// The smallest mode of the chosen mode's shape that is at least scale of
+// it. Rounding up: the table has big gaps, and the controller steps down
+// again if that wasn't enough
+static INT32 Impl_DynamicResolutionMode(INT32 basemode, float scale)
+{
+	const INT32 basew = windowedModes[basemode][0], baseh = windowedModes[basemode][1];
+	INT32 best = basemode, i;
+
+	for (i = 0; i < MAXWINMODES; i++)
+	{
+		const INT32 w = windowedModes[i][0], h = windowedModes[i][1];
+
+		// Same aspect within 1%, so the picture never changes shape
+		if (abs(w * baseh - h * basew) * 100 > basew * baseh)
+			continue;
+
+		if (w >= basew * scale && w < windowedModes[best][0])
+			best = i;
+	}
+
+	return best;
+}
+
+void I_UpdateDynamicResolution(void)
+{
+	// Going down mid-race hitches, but so does the run of missed frames
+	// it stops; don't do it more often than this
+	static const double kMinShrinkInterval = 5.0;
+	static precise_t lastchange = 0;
+	static INT32 lastmode = -1;
+
+	const INT32 basemode = VID_GetModeForSize(cv_scr_width.value, cv_scr_height.value);
+	INT32 mode;
+	boolean shrinking;
+
+	if (basemode < 0 || setmodeneeded || setrenderneeded)
+		return;
+
+	// A mode the player is trying out in the menu isn't ours to change
+	if (vid.modenum != basemode && vid.modenum != lastmode)
+		return;
+
+	mode = Impl_DynamicResolutionMode(basemode, AndroidDynRes_Scale());
+	if (mode == vid.modenum)
+		return;
+
+	shrinking = windowedModes[mode][0] < vid.width;
+	if (gamestate == GS_LEVEL)
+	{
+		// Going up fixes nothing that can't wait for the next level
+		if (!shrinking)
+			return;
+		if (lastchange != 0 && (double)(I_GetPreciseTime() - lastchange) / I_GetPrecisePrecision() < kMinShrinkInterval)
+			return;
+	}
+
+	CONS_Debug(DBG_RENDER, "Dynamic resolution: %dx%d\n", windowedModes[mode][0], windowedModes[mode][1]);
+	setmodeneeded = mode + 1;
+	lastmode = mode;
+	lastchange = I_GetPreciseTime();
+}
+#endif
+
 static SDL_bool Impl_CreateWindow(SDL_bool fullscreen)
 {
 	uint32_t flags = SDL_WINDOW_RESIZABLE;
@@ -1735,6 +1927,13 @@ UINT32 I_GetRefreshRate(void)
 	// well for windowed mode since you can drag
 	// the window around, but very slow PCs might have
 	// trouble querying mode over and over again.
+#ifdef ANDROID
+	// The Choreographer knows the display's modes, which SDL's display
+	// mode doesn't follow when the phone switches 60/90/120Hz. Match the
+	// fastest one: the current mode may only be low because we ran slow
+	if (AndroidFrame_MaxRefreshRate() != 0)
+		return AndroidFrame_MaxRefreshRate();
+#endif
 	return refresh_rate;
 }
 
@@ -38,6 +38,7 @@
 #include "m_random.h"
 #include "doomstat.h"
 #include "hwr2/blendmode.hpp"
+#include "core/memory.h"
 
 #ifdef HWRENDER
 #include "hardware/hw_glob.h"
@@ -58,6 +59,8 @@ UINT8 *screens[5];
 // screens[2] = screenshot buffer, gif movie buffer
 // screens[3] = fade screen start
 // screens[4] = fade screen end, postimage tempoarary buffer
+// NOPOSTPROCESSING builds only allocate screens[0] and screens[1]; wipes
+// don't need the others
 
 #define huecoloursteps 4
 
@@ -1454,7 +1457,15 @@ void V_DrawVhsEffect(boolean rewind)
 {
 	static fixed_t upbary = 100, downbary = 150;
 
-	UINT8 *buf = screens[0], *tmp = screens[4];
+	// Rows are distorted two at a time into a small scratch buffer, and
+	// each pair is written back once the next one no longer needs to read
+	// it, instead of building the whole screen in a second buffer
+	const UINT32 pairbytes = vid.rowbytes*2;
+	UINT8 *buf = screens[0];
+	UINT8 *rows[2];
+	UINT8 *pending = NULL;
+	UINT32 pendingpos = 0;
+	const UINT32 screenbytes = vid.rowbytes*vid.height;
 	UINT16 y;
 	UINT32 x, pos = 0;
 
@@ -1472,6 +1483,9 @@ void V_DrawVhsEffect(boolean rewind)
 	if (rewind)
 		V_DrawVhsEffect(false); // experimentation
 
+	rows[0] = static_cast<UINT8*>(Z_Frame_Alloc(pairbytes*2));
+	rows[1] = rows[0] + pairbytes;
+
 	upbary -= FixedMul(vid.dupy * (rewind ? 3 : 1.8f), renderdeltatics);
 	downbary += FixedMul(vid.dupy * (rewind ? 2 : 1), renderdeltatics);
 	if (upbary < -barsize) upbary = vid.height;
@@ -1498,16 +1512,24 @@ void V_DrawVhsEffect(boolean rewind)
 		if (y == 0 && offs < 0) offs = 0;
 		else if (y >= vid.height-2 && offs > 0) offs = 0;
 
-		for (x = pos+vid.rowbytes*2; pos < x; pos++)
+		UINT8 *out = rows[(y>>1) & 1];
+		for (x = 0; x < pairbytes; x++)
 		{
-			tmp[pos] = thismapstart[buf[pos+offs]];
+			out[x] = thismapstart[buf[pos+x+offs]];
 #ifdef HQ_VHS
-			tmp[pos] = tmapstart[buf[pos]<<8 | tmp[pos]];
+			out[x] = tmapstart[buf[pos+x]<<8 | out[x]];
 #endif
 		}
+
+		if (pending)
+			memcpy(buf + pendingpos, pending, pairbytes);
+		pending = out;
+		pendingpos = pos;
+		pos += pairbytes;
 	}
 
-	memcpy(buf, tmp, vid.rowbytes*vid.height);
+	if (pending)
+		memcpy(buf + pendingpos, pending, std::min(pairbytes, screenbytes - pendingpos));
 }
 
 //
@@ -3816,6 +3838,13 @@ void VID_DisplaySoftwareScreen()
 			}
 		}
 
+		glm::vec2 roll {1.f, 0.f};
+#ifdef NOPOSTPROCESSING
+		// Without the scratch screens, view roll is done here in the same
+		// pass, rather than as a remap of the whole screen on the CPU
+		R_GetViewMorphRotation(i, &roll.x, &roll.y);
+#endif
+
 		hw_state->blit_postimg_screens->set_screen(
 			i,
 			{
@@ -3828,7 +3857,8 @@ void VID_DisplaySoftwareScreen()
 					postimgtype[i] == postimg_heat && !cv_reducevfx.value,
 					postimgtype[i] == postimg_flip,
 					postimgtype[i] == postimg_mirror
-				}
+				},
+				roll
 			}
 		);
 	}
@@ -83,6 +83,11 @@
 #include "console.h"
 #endif
 
+#ifdef ANDROID
+#include "android_assets.h"
+#include "lumpdir_cache.h"
+#endif
+
 #ifndef O_BINARY
 #define O_BINARY 0
 #endif
@@ -200,6 +205,15 @@ FILE *W_OpenWadFile(const char **filename, const char *priorityfolder, boolean u
 		*filename = filenamebuf;
 	}
 
+#ifdef ANDROID
+	// pk3s read in place from the APK have no file on disk
+	if ((handle = AndroidAssets_Open(*filename)) != NULL)
+		return handle;
+
+	// Still being extracted in the background
+	AndroidAssets_WaitReady(*filename);
+#endif
+
 	// open wad file
 	if ((handle = fopen(*filename, "rb")) == NULL)
 	{
@@ -942,7 +956,17 @@ UINT16 W_InitFile(const char *filename, boolean mainfile, boolean startup, const
 		lumpinfo = ResGetLumpsStandalone(handle, &numlumps, "LUA_INIT");
 		break;
 	case RET_PK3:
+#ifdef ANDROID
+		// Warm start: skip the central directory and every local header
+		if ((lumpinfo = LumpDirCache_Load(filename, handle, &numlumps)) == NULL)
+		{
+			lumpinfo = ResGetLumpsZip(handle, &numlumps);
+			if (lumpinfo)
+				LumpDirCache_Store(filename, handle, lumpinfo, numlumps);
+		}
+#else
 		lumpinfo = ResGetLumpsZip(handle, &numlumps);
+#endif
 		break;
 	case RET_WAD:
 		lumpinfo = ResGetLumpsWad(handle, &numlumps, filename);